@@ -0,0 +1,92 @@
+package org.alfresco.webscripts.export.benchmark;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.webscripts.export.ExportCompressor;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of one document to the export directory: block-parallel compression with a growing number
+ * of threads against a single-threaded {@link GZIPOutputStream}. The synthetic content is random, so this is
+ * the worst case, where deflate does the most work for the least gain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CompressionBenchmark {
+
+    @Param({"1048576", "16777216"})
+    private int documentSize;
+
+    @Param({"1", "2", "4", "8"})
+    private int threads;
+
+    private SyntheticRepository repository;
+    private ExportCompressor compressor;
+    private NodeRef nodeRef;
+    private Path workDir;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("export-benchmark-");
+        repository = new SyntheticRepository(1, documentSize, 0, 0, null);
+        compressor = new ExportCompressor();
+        compressor.setThreads(threads);
+        compressor.init();
+        nodeRef = repository.getAnyNodeRef();
+        target = workDir.resolve("target.bin.gz");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        compressor.destroy();
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    @Benchmark
+    public long parallel() throws IOException, InterruptedException {
+        return compressor.compress(getReader(), target, null);
+    }
+
+    @Benchmark
+    public long singleStream() throws IOException {
+        InputStream in = getReader().getContentInputStream();
+        OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), 64 * 1024);
+        try {
+            return IOUtils.copyLarge(in, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private ContentReader getReader() {
+        return repository.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
+    }
+}
@@ -0,0 +1,61 @@
+package org.alfresco.webscripts.export.benchmark;
+
+import org.alfresco.webscripts.export.ExportLog;
+import org.alfresco.webscripts.export.ExportMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export log writing: buffered appends to the local file, then the single write of the log node on close.
+ * The synthetic content writer reads the whole log, as the repository would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExportLogBenchmark {
+
+    @Param({"10000", "1000000"})
+    private int lineCount;
+
+    @Param({"120"})
+    private int lineLength;
+
+    private SyntheticRepository repository;
+    private ExportMetrics metrics;
+    private String line;
+
+    @Setup
+    public void setUp() throws IOException {
+        repository = new SyntheticRepository(1, 0, 0, 0, null);
+        metrics = new ExportMetrics();
+        char[] chars = new char[lineLength];
+        Arrays.fill(chars, 'x');
+        line = new String(chars);
+    }
+
+    @Benchmark
+    public void writeLog() throws IOException {
+        ExportLog log = new ExportLog(repository.getAnyNodeRef(), repository.getContentService(),
+            repository.getRetryingTransactionHelper(), metrics);
+        for (int i = 0; i < lineCount; i++) {
+            log.append(line);
+        }
+        log.close();
+    }
+}
@@ -0,0 +1,149 @@
+package org.alfresco.webscripts.export.benchmark;
+
+import org.alfresco.webscripts.export.ExportCompressor;
+import org.alfresco.webscripts.export.ExportDeduplication;
+import org.alfresco.webscripts.export.ExportJob;
+import org.alfresco.webscripts.export.ExportLayout;
+import org.alfresco.webscripts.export.ExportMetrics;
+import org.alfresco.webscripts.export.ExportSearch;
+import org.alfresco.webscripts.export.ExportThrottle;
+import org.alfresco.webscripts.export.ExportWebScript;
+import org.alfresco.webscripts.export.ExportWorkerPool;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole export of {@code ExportWebScript} from the checkpoint on: prefetched search batches, parallel extraction
+ * on the worker pool, layout, file name allocation, duplicate handling, throttle, compression, content copy
+ * and integrity manifest. The webscript is wired to the synthetic repository and driven through
+ * {@link ExportWebScript#runExport(ExportJob, String)}; the export log, kept in the repository, is left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExportPipelineBenchmark {
+
+    @Param({"2000"})
+    private int documentCount;
+
+    @Param({"16384", "1048576"})
+    private int documentSize;
+
+    @Param({"50", "500"})
+    private int batchSize;
+
+    @Param({ExportSearch.PAGINATION_KEYSET, ExportSearch.PAGINATION_OFFSET})
+    private String pagination;
+
+    @Param({"1"})
+    private int prefetchDepth;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"0.1"})
+    private double duplicateNameRatio;
+
+    @Param({"0.2"})
+    private double duplicateContentRatio;
+
+    @Param({ExportDeduplication.MODE_NONE, ExportDeduplication.MODE_LINK})
+    private String dedupMode;
+
+    @Param({"sha256"})
+    private String checksumMode;
+
+    @Param({ExportLayout.LAYOUT_FLAT})
+    private String layout;
+
+    @Param({ExportCompressor.MODE_NONE})
+    private String compression;
+
+    private SyntheticRepository repository;
+    private ExportWorkerPool workerPool;
+    private ExportCompressor compressor;
+    private ExportWebScript webScript;
+    private Path baseDir;
+    private Path exportDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        repository = new SyntheticRepository(documentCount, documentSize, duplicateNameRatio, duplicateContentRatio, null);
+        baseDir = Files.createTempDirectory("export-benchmark-");
+
+        workerPool = new ExportWorkerPool();
+        workerPool.setThreads(threads);
+        workerPool.setQueueSize(batchSize);
+        workerPool.init();
+        compressor = new ExportCompressor();
+        compressor.init();
+        ExportThrottle throttle = new ExportThrottle();
+        throttle.init();
+
+        webScript = new ExportWebScript();
+        webScript.setNodeService(repository.getNodeService());
+        webScript.setSearchService(repository.getSearchService());
+        webScript.setContentService(repository.getContentService());
+        webScript.setRetryingTransactionHelper(repository.getRetryingTransactionHelper());
+        webScript.setExportWorkerPool(workerPool);
+        webScript.setExportMetrics(new ExportMetrics());
+        webScript.setExportThrottle(throttle);
+        webScript.setExportCompressor(compressor);
+        webScript.setBatchSize(batchSize);
+        webScript.setPaginationMode(pagination);
+        webScript.setPrefetchDepth(prefetchDepth);
+        webScript.setDedupMode(dedupMode);
+        webScript.setChecksumMode(checksumMode);
+        webScript.setLogSampleInterval(Integer.MAX_VALUE);
+    }
+
+    @Setup(Level.Invocation)
+    public void createExportDir() throws IOException {
+        exportDir = Files.createTempDirectory(baseDir, "Export_");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteExportDir() throws IOException {
+        FileUtils.deleteDirectory(exportDir.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        compressor.destroy();
+        workerPool.destroy();
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Benchmark
+    public int export() throws Exception {
+        ExportJob job = new ExportJob("benchmark", null, documentCount, "", "");
+        job.setLayout(layout);
+        job.setCompression(compression);
+
+        int extracted = webScript.runExport(job, exportDir.toString());
+        if (extracted != documentCount) {
+            throw new IllegalStateException("Exported " + extracted + " of " + documentCount + " documents");
+        }
+        return extracted;
+    }
+}
@@ -0,0 +1,81 @@
+package org.alfresco.webscripts.export.benchmark;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.webscripts.export.ExportChecksums;
+import org.alfresco.webscripts.export.ExportContentCopier;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy of one document to the export directory, from memory or from a file content store,
+ * with and without the {@code FileChannel.transferTo} path, and with and without the SHA-256 digest
+ * of the integrity manifest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StreamCopyBenchmark {
+
+    public static final String STORE_MEMORY = "memory";
+    public static final String STORE_FILE = "file";
+
+    @Param({"65536", "1048576", "16777216"})
+    private int documentSize;
+
+    @Param({STORE_MEMORY, STORE_FILE})
+    private String store;
+
+    @Param({"true", "false"})
+    private boolean zeroCopy;
+
+    @Param({"false", "true"})
+    private boolean digest;
+
+    private SyntheticRepository repository;
+    private ExportContentCopier contentCopier;
+    private NodeRef nodeRef;
+    private Path workDir;
+    private Path target;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("export-benchmark-");
+        repository = new SyntheticRepository(1, documentSize, 0, 0, STORE_FILE.equals(store) ? workDir : null);
+        contentCopier = new ExportContentCopier(zeroCopy);
+        nodeRef = repository.getAnyNodeRef();
+        target = workDir.resolve("target.bin");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    @Benchmark
+    public long copy() throws IOException, NoSuchAlgorithmException {
+        return contentCopier.copy(repository.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT), target,
+            digest ? MessageDigest.getInstance(ExportChecksums.ALGORITHM) : null);
+    }
+}
@@ -0,0 +1,357 @@
+package org.alfresco.webscripts.export.benchmark;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.QName;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory stand-in for the repository services used by the export: a fixed set of synthetic documents
+ * served through {@link NodeService}, {@link SearchService} and {@link ContentService} proxies.
+ * Only the calls made by the export are implemented, any other one fails.
+ * Searches honour the keyset clause on {@code sys:node-dbid}, the skip count and the maximum items,
+ * and ignore the rest of the query: every document matches.
+ */
+public class SyntheticRepository {
+
+    private static final Pattern DBID_RANGE = Pattern.compile("node-dbid:\\[(\\d+) TO MAX\\]");
+    private static final String MIMETYPE = "application/pdf";
+
+    /**
+     * A synthetic document.
+     */
+    private static class Document {
+        final NodeRef nodeRef;
+        final long dbId;
+        final String name;
+        final String contentUrl;
+
+        Document(NodeRef nodeRef, long dbId, String name, String contentUrl) {
+            this.nodeRef = nodeRef;
+            this.dbId = dbId;
+            this.name = name;
+            this.contentUrl = contentUrl;
+        }
+    }
+
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<NodeRef, Document> documentsByRef = new HashMap<>();
+    private final byte[] content;
+    private final File contentFile;
+
+    private final NodeService nodeService;
+    private final SearchService searchService;
+    private final ContentService contentService;
+    private final RetryingTransactionHelper retryingTransactionHelper;
+
+    /**
+     * @param documentCount         number of documents
+     * @param documentSize          content size of every document, in bytes
+     * @param duplicateNameRatio    share of documents reusing the name of an earlier document
+     * @param duplicateContentRatio share of documents reusing the content URL of an earlier document
+     * @param storeDir              directory holding a file-backed copy of the content, served through
+     *                              {@link FileContentReader}; null to serve it from memory
+     */
+    public SyntheticRepository(int documentCount, int documentSize, double duplicateNameRatio,
+                               double duplicateContentRatio, Path storeDir) throws IOException {
+        Random random = new Random(42);
+        this.content = new byte[documentSize];
+        random.nextBytes(content);
+
+        if (storeDir != null) {
+            contentFile = storeDir.resolve("content.bin").toFile();
+            Files.write(contentFile.toPath(), content);
+        } else {
+            contentFile = null;
+        }
+
+        for (int i = 0; i < documentCount; i++) {
+            String name = i > 0 && random.nextDouble() < duplicateNameRatio
+                ? documents.get(random.nextInt(i)).name
+                : "document-" + i + ".pdf";
+            String contentUrl = i > 0 && random.nextDouble() < duplicateContentRatio
+                ? documents.get(random.nextInt(i)).contentUrl
+                : "store://synthetic/" + i + ".bin";
+
+            // Database ids are sparse, as in a real repository
+            Document document = new Document(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "synthetic-" + i),
+                100 + i * 3L, name, contentUrl);
+            documents.add(document);
+            documentsByRef.put(document.nodeRef, document);
+        }
+
+        this.nodeService = proxy(NodeService.class, new NodeServiceHandler());
+        this.searchService = proxy(SearchService.class, new SearchServiceHandler());
+        this.contentService = proxy(ContentService.class, new ContentServiceHandler());
+        this.retryingTransactionHelper = new InlineTransactionHelper();
+    }
+
+    public NodeService getNodeService() {
+        return nodeService;
+    }
+
+    public SearchService getSearchService() {
+        return searchService;
+    }
+
+    public ContentService getContentService() {
+        return contentService;
+    }
+
+    public RetryingTransactionHelper getRetryingTransactionHelper() {
+        return retryingTransactionHelper;
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * A NodeRef of the repository, usable as the export log node.
+     */
+    public NodeRef getAnyNodeRef() {
+        return documents.get(0).nodeRef;
+    }
+
+    private Document getDocument(Object nodeRef) {
+        Document document = documentsByRef.get(nodeRef);
+        if (document == null) {
+            throw new IllegalArgumentException("Unknown node: " + nodeRef);
+        }
+        return document;
+    }
+
+    private List<NodeRef> search(SearchParameters searchParams) {
+        long minDbId = 0;
+        Matcher matcher = DBID_RANGE.matcher(searchParams.getQuery());
+        if (matcher.find()) {
+            minDbId = Long.parseLong(matcher.group(1));
+        }
+
+        List<NodeRef> results = new ArrayList<>();
+        int skip = searchParams.getSkipCount();
+        for (Document document : documents) {
+            if (document.dbId < minDbId) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (results.size() >= searchParams.getMaxItems()) {
+                break;
+            }
+            results.add(document.nodeRef);
+        }
+        return results;
+    }
+
+    private ContentReader newReader(final Document document) {
+        if (contentFile != null) {
+            return new FileContentReader(contentFile, document.contentUrl);
+        }
+
+        final Map<String, Object> values = new HashMap<>();
+        values.put("getContentUrl", document.contentUrl);
+        values.put("getSize", (long) content.length);
+        values.put("getMimetype", MIMETYPE);
+        values.put("getEncoding", "UTF-8");
+        values.put("getLastModified", 0L);
+        values.put("exists", true);
+        return proxy(ContentReader.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getContentInputStream".equals(method.getName())) {
+                    return new ByteArrayInputStream(content);
+                }
+                return answer(proxy, method, args, values);
+            }
+        });
+    }
+
+    /**
+     * Writer discarding everything, as used by the export log.
+     */
+    private ContentWriter newDiscardingWriter() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("getMimetype", "text/plain");
+        values.put("getEncoding", "UTF-8");
+        return proxy(ContentWriter.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws IOException {
+                String name = method.getName();
+                if ("putContent".equals(name)) {
+                    // Read the content as the repository would
+                    if (args[0] instanceof File) {
+                        Files.readAllBytes(((File) args[0]).toPath());
+                    } else if (args[0] instanceof InputStream) {
+                        InputStream in = (InputStream) args[0];
+                        byte[] buffer = new byte[8192];
+                        while (in.read(buffer) >= 0) {
+                            // Discard
+                        }
+                        in.close();
+                    }
+                    return null;
+                }
+                if ("setMimetype".equals(name) || "setEncoding".equals(name)) {
+                    return null;
+                }
+                if ("getContentOutputStream".equals(name)) {
+                    return new OutputStream() {
+                        @Override
+                        public void write(int b) {
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                        }
+                    };
+                }
+                return answer(proxy, method, args, values);
+            }
+        });
+    }
+
+    private class NodeServiceHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("exists".equals(name)) {
+                return documentsByRef.containsKey(args[0]);
+            }
+            if ("getProperty".equals(name)) {
+                return getProperties(getDocument(args[0])).get(args[1]);
+            }
+            if ("getProperties".equals(name)) {
+                return getProperties(getDocument(args[0]));
+            }
+            if ("getPrimaryParent".equals(name)) {
+                // Every document is at the root of the store
+                return null;
+            }
+            if ("getNodeStatus".equals(name)) {
+                Document document = documentsByRef.get(args[0]);
+                return document != null ? new NodeRef.Status(document.dbId, document.nodeRef, null, null, false) : null;
+            }
+            return answer(proxy, method, args, Collections.<String, Object>emptyMap());
+        }
+
+        private Map<QName, Serializable> getProperties(Document document) {
+            Map<QName, Serializable> properties = new LinkedHashMap<>();
+            properties.put(ContentModel.PROP_NAME, document.name);
+            properties.put(ContentModel.PROP_NODE_DBID, document.dbId);
+            return properties;
+        }
+    }
+
+    private class SearchServiceHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("query".equals(method.getName()) && args.length == 1 && args[0] instanceof SearchParameters) {
+                final List<NodeRef> results = search((SearchParameters) args[0]);
+                final Map<String, Object> values = new HashMap<>();
+                values.put("getNodeRefs", results);
+                values.put("length", results.size());
+                values.put("getNumberFound", (long) results.size());
+                values.put("hasMore", false);
+                values.put("close", null);
+                return proxy(ResultSet.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getNodeRef".equals(method.getName())) {
+                            return results.get((Integer) args[0]);
+                        }
+                        return answer(proxy, method, args, values);
+                    }
+                });
+            }
+            return answer(proxy, method, args, Collections.<String, Object>emptyMap());
+        }
+    }
+
+    private class ContentServiceHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("getReader".equals(name)) {
+                return newReader(getDocument(args[0]));
+            }
+            if ("getWriter".equals(name)) {
+                return newDiscardingWriter();
+            }
+            return answer(proxy, method, args, Collections.<String, Object>emptyMap());
+        }
+    }
+
+    /**
+     * Transaction helper running callbacks inline, without any transaction.
+     */
+    private static class InlineTransactionHelper extends RetryingTransactionHelper {
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew) {
+            try {
+                return cb.execute();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Answer a proxied call from fixed values by method name, handling the {@link Object} methods.
+     */
+    private static Object answer(Object proxy, Method method, Object[] args, Map<String, Object> values) {
+        String name = method.getName();
+        if (values.containsKey(name)) {
+            return values.get(name);
+        }
+        if ("toString".equals(name)) {
+            return "Synthetic " + proxy.getClass().getInterfaces()[0].getSimpleName();
+        }
+        if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        }
+        throw new UnsupportedOperationException("Not available in the synthetic repository: " + method);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SyntheticRepository.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+}
@@ -0,0 +1,59 @@
+package org.alfresco.webscripts.export.benchmark;
+
+import org.alfresco.webscripts.export.UniqueFileNames;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File name allocation for a whole export, with a growing share of documents named like an earlier one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class UniqueFileNamesBenchmark {
+
+    @Param({"10000"})
+    private int documentCount;
+
+    @Param({"0.0", "0.1", "0.5", "0.9"})
+    private double duplicateNameRatio;
+
+    private List<String> names;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        names = new ArrayList<>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            names.add(i > 0 && random.nextDouble() < duplicateNameRatio
+                ? names.get(random.nextInt(i))
+                : "document-" + i + ".pdf");
+        }
+    }
+
+    @Benchmark
+    public void allocate(Blackhole blackhole) {
+        UniqueFileNames fileNames = new UniqueFileNames();
+        for (String name : names) {
+            blackhole.consume(fileNames.allocate(name));
+        }
+    }
+}
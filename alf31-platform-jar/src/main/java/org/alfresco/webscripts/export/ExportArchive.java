@@ -0,0 +1,97 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * ZIP or TAR archive written straight to an output stream, one entry per document.
+ * Each entry is copied from its content reader without staging it on disk or in memory.
+ */
+public class ExportArchive {
+
+    public static final String FORMAT_ZIP = "zip";
+    public static final String FORMAT_TAR = "tar";
+
+    // Content metadata from this size on gets a Zip64 entry, so that it would have to be off by half to overflow
+    private static final long ZIP64_THRESHOLD = 2L * 1024 * 1024 * 1024;
+
+    private final String format;
+    private final ArchiveOutputStream out;
+
+    public ExportArchive(String format, OutputStream outputStream) {
+        this.format = format;
+        if (FORMAT_TAR.equals(format)) {
+            TarArchiveOutputStream tar = new TarArchiveOutputStream(outputStream, "UTF-8");
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            this.out = tar;
+        } else {
+            ZipArchiveOutputStream zip = new ZipArchiveOutputStream(outputStream);
+            zip.setEncoding("UTF-8");
+            zip.setUseZip64(Zip64Mode.AsNeeded);
+            this.out = zip;
+        }
+    }
+
+    public static boolean isArchiveFormat(String format) {
+        return FORMAT_ZIP.equals(format) || FORMAT_TAR.equals(format);
+    }
+
+    /**
+     * Append a document. A TAR entry takes its size from the content metadata, as its header is written before
+     * the data. A ZIP entry has its sizes written after the data, from the bytes actually copied, so metadata
+     * that does not match the content cannot fail it; the metadata size only decides whether the entry gets
+     * Zip64 sizes, which on a stream must be known before the data.
+     *
+     * @return the number of bytes written
+     */
+    public long addEntry(String name, ContentReader reader) throws IOException {
+        ArchiveEntry entry;
+        if (FORMAT_TAR.equals(format)) {
+            TarArchiveEntry tarEntry = new TarArchiveEntry(name);
+            tarEntry.setSize(reader.getSize());
+            tarEntry.setModTime(reader.getLastModified());
+            entry = tarEntry;
+        } else {
+            ZipArchiveEntry zipEntry = new ZipArchiveEntry(name);
+            zipEntry.setTime(reader.getLastModified() > 0 ? reader.getLastModified() : new Date().getTime());
+            ((ZipArchiveOutputStream) out).setUseZip64(reader.getSize() >= ZIP64_THRESHOLD ? Zip64Mode.Always : Zip64Mode.AsNeeded);
+            entry = zipEntry;
+        }
+
+        out.putArchiveEntry(entry);
+        InputStream inputStream = null;
+        try {
+            inputStream = reader.getContentInputStream();
+            long written = IOUtils.copyLarge(inputStream, out);
+            out.closeArchiveEntry();
+            return written;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Write the archive trailer and flush. The underlying response stream is left open.
+     */
+    public void finish() throws IOException {
+        if (out instanceof ZipArchiveOutputStream) {
+            // Zip64 sizes in the central directory only for the entries that need them
+            ((ZipArchiveOutputStream) out).setUseZip64(Zip64Mode.AsNeeded);
+        }
+        out.finish();
+        out.flush();
+    }
+}
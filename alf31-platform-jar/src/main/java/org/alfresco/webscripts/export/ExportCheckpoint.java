@@ -0,0 +1,431 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * On-disk checkpoint of an export, kept in its dated export directory so that an interrupted export
+ * can be resumed in place.
+ * <ul>
+ *     <li>{@value #STATE_FILE}: query parameters and the search position after the last completed batch,
+ *     rewritten atomically after each batch;</li>
+ *     <li>{@value #ENTRIES_FILE}: one line per exported document (NodeRef, repository name, file name),
+ *     append-only;</li>
+ *     <li>{@value #LOCK_FILE}: locked by the run writing the checkpoint, so that two runs never resume
+ *     the same directory at once.</li>
+ * </ul>
+ * No exported document may take one of these names, see {@link #FILE_NAMES}.
+ */
+public class ExportCheckpoint {
+
+    public static final String STATE_FILE = ".export-checkpoint.properties";
+    public static final String ENTRIES_FILE = ".export-checkpoint.entries";
+    public static final String LOCK_FILE = ".export-checkpoint.lock";
+    private static final String STATE_TMP_FILE = STATE_FILE + ".tmp";
+
+    /**
+     * Names of all the files of a checkpoint.
+     */
+    public static final String[] FILE_NAMES = {STATE_FILE, STATE_TMP_FILE, ENTRIES_FILE, LOCK_FILE};
+
+    private static final String KEY_KEYWORDS = "keywords";
+    private static final String KEY_MIMETYPE = "mimetype";
+    private static final String KEY_MAX_DOCS = "maxDocs";
+    private static final String KEY_PAGINATION = "pagination";
+    private static final String KEY_BATCH_SIZE = "batchSize";
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_SKIP_COUNT = "skipCount";
+    private static final String KEY_EXTRACTED = "extractedCount";
+    private static final String KEY_BYTES = "bytesWritten";
+    private static final String KEY_COMPLETED = "completed";
+    private static final String KEY_INCREMENTAL = "incremental";
+    private static final String KEY_DELETIONS = "includeDeletions";
+    private static final String KEY_MODIFIED_SINCE = "modifiedSince";
+    private static final String KEY_NEXT_WATERMARK = "nextWatermark";
+    private static final String KEY_LAYOUT = "layout";
+    private static final String KEY_COMPRESSION = "compression";
+    private static final String KEY_CONSISTENCY = "consistency";
+
+    /**
+     * An exported document as recorded in the entries file.
+     */
+    public static class Entry {
+        private final String nodeRef;
+        private final String name;
+        private final String fileName;
+
+        Entry(String nodeRef, String name, String fileName) {
+            this.nodeRef = nodeRef;
+            this.name = name;
+            this.fileName = fileName;
+        }
+
+        public String getNodeRef() {
+            return nodeRef;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    private final Path exportDir;
+    private final Properties state;
+    private final Set<String> exported = new HashSet<>();
+    private Writer entriesWriter;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    private ExportCheckpoint(Path exportDir, Properties state) {
+        this.exportDir = exportDir;
+        this.state = state;
+    }
+
+    /**
+     * Start a new checkpoint for a fresh export.
+     */
+    public static ExportCheckpoint create(Path exportDir, ExportJob job, String paginationMode, int batchSize)
+            throws IOException {
+        Properties state = new Properties();
+        state.setProperty(KEY_KEYWORDS, job.getKeywords() != null ? job.getKeywords() : "");
+        state.setProperty(KEY_MIMETYPE, job.getMimetype() != null ? job.getMimetype() : "");
+        state.setProperty(KEY_MAX_DOCS, String.valueOf(job.getMaxDocs()));
+        state.setProperty(KEY_INCREMENTAL, String.valueOf(job.isIncremental()));
+        state.setProperty(KEY_DELETIONS, String.valueOf(job.isIncludeDeletions()));
+        state.setProperty(KEY_MODIFIED_SINCE, String.valueOf(job.getModifiedSince() != null ? job.getModifiedSince().getTime() : -1L));
+        state.setProperty(KEY_NEXT_WATERMARK, String.valueOf(job.getNextWatermark() != null ? job.getNextWatermark().getTime() : -1L));
+        state.setProperty(KEY_LAYOUT, job.getLayout() != null ? job.getLayout() : ExportLayout.LAYOUT_FLAT);
+        state.setProperty(KEY_COMPRESSION, job.getCompression() != null ? job.getCompression() : ExportCompressor.MODE_NONE);
+        state.setProperty(KEY_CONSISTENCY, job.getConsistency() != null ? job.getConsistency() : QueryConsistency.TRANSACTIONAL_IF_POSSIBLE.name());
+        state.setProperty(KEY_PAGINATION, paginationMode);
+        state.setProperty(KEY_BATCH_SIZE, String.valueOf(batchSize));
+        state.setProperty(KEY_CURSOR, "-1");
+        state.setProperty(KEY_SKIP_COUNT, "0");
+        state.setProperty(KEY_EXTRACTED, "0");
+        state.setProperty(KEY_BYTES, "0");
+        state.setProperty(KEY_COMPLETED, "false");
+
+        ExportCheckpoint checkpoint = new ExportCheckpoint(exportDir, state);
+        try {
+            checkpoint.lock();
+            checkpoint.openEntries();
+            checkpoint.writeState();
+        } catch (IOException e) {
+            checkpoint.close();
+            throw e;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Read the state of an existing checkpoint, without its entries.
+     *
+     * @throws IOException if the directory holds no checkpoint
+     */
+    public static ExportCheckpoint read(Path exportDir) throws IOException {
+        Path stateFile = exportDir.resolve(STATE_FILE);
+        if (!Files.isRegularFile(stateFile)) {
+            throw new IOException("No export checkpoint found in " + exportDir);
+        }
+
+        Properties state = new Properties();
+        InputStream in = Files.newInputStream(stateFile);
+        try {
+            state.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return new ExportCheckpoint(exportDir, state);
+    }
+
+    /**
+     * Lock the checkpoint, then load the exported entries and reopen the entries file for appending.
+     *
+     * @return the entries, in the order they were written
+     * @throws IOException if another run is already writing to the directory
+     */
+    public List<Entry> resume() throws IOException {
+        lock();
+        List<Entry> entries = readEntries(exportDir);
+        for (Entry entry : entries) {
+            exported.add(entry.getNodeRef());
+        }
+        truncatePartialLine(exportDir.resolve(ENTRIES_FILE));
+        openEntries();
+        return entries;
+    }
+
+    /**
+     * Read the entries recorded in an export directory.
+     *
+     * @return the entries, in the order they were written
+     */
+    public static List<Entry> readEntries(Path exportDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path entriesFile = exportDir.resolve(ENTRIES_FILE);
+        if (Files.exists(entriesFile)) {
+            // A partially written last line is ignored, even when it was cut after its last tab:
+            // the document will be exported again
+            boolean terminated = getCompleteLength(entriesFile) == Files.size(entriesFile);
+            BufferedReader reader = Files.newBufferedReader(entriesFile, StandardCharsets.UTF_8);
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    String next = reader.readLine();
+                    String[] fields = line.split("\t");
+                    if (fields.length == 3 && (next != null || terminated)) {
+                        entries.add(new Entry(fields[0], decode(fields[1]), decode(fields[2])));
+                    }
+                    line = next;
+                }
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Cut a partially written last line off the entries file, so that the entries appended by a resumed run
+     * start on a line of their own.
+     */
+    private static void truncatePartialLine(Path entriesFile) throws IOException {
+        if (!Files.exists(entriesFile)) {
+            return;
+        }
+        long length = getCompleteLength(entriesFile);
+        if (length < Files.size(entriesFile)) {
+            FileChannel channel = FileChannel.open(entriesFile, StandardOpenOption.WRITE);
+            try {
+                channel.truncate(length);
+            } finally {
+                IOUtils.closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Length of a file up to the end of its last complete line, found by reading it backwards.
+     */
+    private static long getCompleteLength(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+                    // Positional reads may return fewer bytes than asked for
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Take the exclusive lock of the directory until {@link #close()}. The lock is released by the system
+     * if the repository stops, so a crashed run never leaves its directory locked.
+     */
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(exportDir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Locked by another run of this repository
+            lock = null;
+        }
+        if (lock == null) {
+            IOUtils.closeQuietly(lockChannel);
+            lockChannel = null;
+            throw new IOException("Export directory " + exportDir + " is already being written by another run");
+        }
+    }
+
+    private void openEntries() throws IOException {
+        entriesWriter = Files.newBufferedWriter(exportDir.resolve(ENTRIES_FILE), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public synchronized boolean isExported(String nodeRef) {
+        return exported.contains(nodeRef);
+    }
+
+    /**
+     * Record an exported document. Called by the extraction workers.
+     */
+    public synchronized void recordExported(String nodeRef, String name, String fileName) throws IOException {
+        exported.add(nodeRef);
+        entriesWriter.write(nodeRef + "\t" + encode(name) + "\t" + encode(fileName) + "\n");
+    }
+
+    /**
+     * Persist the search position after a completed batch, along with all entries recorded so far.
+     */
+    public synchronized void save(long cursor, int skipCount, int extractedCount, long bytesWritten, boolean completed)
+            throws IOException {
+        entriesWriter.flush();
+        state.setProperty(KEY_CURSOR, String.valueOf(cursor));
+        state.setProperty(KEY_SKIP_COUNT, String.valueOf(skipCount));
+        state.setProperty(KEY_EXTRACTED, String.valueOf(extractedCount));
+        state.setProperty(KEY_BYTES, String.valueOf(bytesWritten));
+        state.setProperty(KEY_COMPLETED, String.valueOf(completed));
+        writeState();
+    }
+
+    public synchronized void close() {
+        IOUtils.closeQuietly(entriesWriter);
+        entriesWriter = null;
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // Released with the channel
+            }
+            lock = null;
+        }
+        IOUtils.closeQuietly(lockChannel);
+        lockChannel = null;
+    }
+
+    /**
+     * Write the state to a temp file and move it over the previous one, so a crash never leaves it half written.
+     */
+    private void writeState() throws IOException {
+        Path tmp = exportDir.resolve(STATE_TMP_FILE);
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            state.store(out, "Export checkpoint");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        Files.move(tmp, exportDir.resolve(STATE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
+    public String getKeywords() {
+        return state.getProperty(KEY_KEYWORDS, "");
+    }
+
+    public String getMimetype() {
+        return state.getProperty(KEY_MIMETYPE, "");
+    }
+
+    public int getMaxDocs() {
+        return Integer.parseInt(state.getProperty(KEY_MAX_DOCS, "0"));
+    }
+
+    /**
+     * Directory layout of the export; exports started before layouts existed are flat.
+     */
+    public String getLayout() {
+        return state.getProperty(KEY_LAYOUT, ExportLayout.LAYOUT_FLAT);
+    }
+
+    /**
+     * Compression of the exported files; exports started before compression existed are not compressed.
+     */
+    public String getCompression() {
+        return state.getProperty(KEY_COMPRESSION, ExportCompressor.MODE_NONE);
+    }
+
+    /**
+     * Name of the query consistency of the searches; exports started before it could be chosen used the database when possible.
+     */
+    public String getConsistency() {
+        return state.getProperty(KEY_CONSISTENCY, QueryConsistency.TRANSACTIONAL_IF_POSSIBLE.name());
+    }
+
+    public String getPaginationMode() {
+        return state.getProperty(KEY_PAGINATION, ExportSearch.PAGINATION_KEYSET);
+    }
+
+    public int getBatchSize() {
+        return Integer.parseInt(state.getProperty(KEY_BATCH_SIZE, "0"));
+    }
+
+    public long getCursor() {
+        return Long.parseLong(state.getProperty(KEY_CURSOR, "-1"));
+    }
+
+    public int getSkipCount() {
+        return Integer.parseInt(state.getProperty(KEY_SKIP_COUNT, "0"));
+    }
+
+    public int getExtractedCount() {
+        return Integer.parseInt(state.getProperty(KEY_EXTRACTED, "0"));
+    }
+
+    public long getBytesWritten() {
+        return Long.parseLong(state.getProperty(KEY_BYTES, "0"));
+    }
+
+    public boolean isIncremental() {
+        return Boolean.parseBoolean(state.getProperty(KEY_INCREMENTAL, "false"));
+    }
+
+    public boolean isIncludeDeletions() {
+        return Boolean.parseBoolean(state.getProperty(KEY_DELETIONS, "false"));
+    }
+
+    public Date getModifiedSince() {
+        return getDate(KEY_MODIFIED_SINCE);
+    }
+
+    public Date getNextWatermark() {
+        return getDate(KEY_NEXT_WATERMARK);
+    }
+
+    private Date getDate(String key) {
+        long time = Long.parseLong(state.getProperty(key, "-1"));
+        return time >= 0 ? new Date(time) : null;
+    }
+
+    public boolean isCompleted() {
+        return Boolean.parseBoolean(state.getProperty(KEY_COMPLETED, "false"));
+    }
+}
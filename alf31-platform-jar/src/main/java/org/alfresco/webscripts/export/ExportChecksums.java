@@ -0,0 +1,179 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Integrity manifest of an export, {@value #MANIFEST_FILE}: one JSON object per exported document with
+ * its NodeRef, repository path, file name, mimetype, size, modification date and, when enabled, the SHA-256
+ * digest of the written file. The digest is computed inline on the copy stream, which zero-copy is not used for,
+ * and the file is never read back. A resumed export adds to the manifest once it has dropped the lines the checkpoint
+ * does not cover, see {@link #retainExported(Path, ExportCheckpoint)}; a partially written last line is ignored on verify.
+ */
+public class ExportChecksums {
+
+    public static final String MANIFEST_FILE = "_checksums.jsonl";
+    public static final String MANIFEST_TMP_FILE = MANIFEST_FILE + ".tmp";
+    public static final String ALGORITHM = "SHA-256";
+
+    static final String FIELD_NODE_REF = "nodeRef";
+    static final String FIELD_PATH = "path";
+    static final String FIELD_FILE = "file";
+    static final String FIELD_MIMETYPE = "mimetype";
+    static final String FIELD_SIZE = "size";
+    static final String FIELD_SHA256 = "sha256";
+    static final String FIELD_MODIFIED = "modified";
+
+    private final boolean digest;
+    private final boolean deduplicated;
+    private final Writer writer;
+
+    // Digests of the binaries written so far, reused for documents deduplicated against them
+    private final Map<String, String> digestsByContentUrl = new HashMap<>();
+
+    /**
+     * @param digest       whether to compute SHA-256 digests, or only record sizes
+     * @param deduplicated whether documents may be deduplicated against a binary already written, the only case
+     *                     where the digests of the written binaries are kept
+     */
+    public ExportChecksums(Path exportDir, boolean digest, boolean deduplicated) throws IOException {
+        this.digest = digest;
+        this.deduplicated = deduplicated;
+        this.writer = Files.newBufferedWriter(exportDir.resolve(MANIFEST_FILE), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Prepare the manifest of a resumed export, before it is opened: keep the lines of the documents recorded by
+     * the checkpoint, once each. The writer flushes on its own whenever its buffer fills, so the manifest may list
+     * documents written after the last checkpoint, which the resumed export writes and lists again. A partially
+     * written last line is dropped too. The manifest is rewritten to a temp file moved over it.
+     *
+     * @return the number of documents of the checkpoint listed in the manifest
+     */
+    public static int retainExported(Path exportDir, ExportCheckpoint checkpoint) throws IOException {
+        Path manifest = exportDir.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifest)) {
+            return 0;
+        }
+
+        Set<String> listed = new HashSet<>();
+        int dropped = 0;
+        Path tmp = exportDir.resolve(MANIFEST_TMP_FILE);
+        BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+        Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String nodeRef;
+                try {
+                    nodeRef = new JSONObject(line).getString(FIELD_NODE_REF);
+                } catch (JSONException e) {
+                    nodeRef = null;
+                }
+                if (nodeRef != null && checkpoint.isExported(nodeRef) && listed.add(nodeRef)) {
+                    writer.write(line);
+                    writer.write('\n');
+                } else if (!line.trim().isEmpty()) {
+                    dropped++;
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(writer);
+        }
+        if (dropped > 0) {
+            Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.delete(tmp);
+        }
+        return listed.size();
+    }
+
+    /**
+     * A digest to update while copying one document, null when only sizes are recorded.
+     */
+    public MessageDigest newDigest() {
+        if (!digest) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Record an exported document. Called by the extraction workers.
+     *
+     * @param contentDigest digest updated with the copied bytes, or null for a document whose binary was not copied
+     *                      again, in which case the digest of the first copy of {@code contentUrl} is used
+     */
+    public void record(String nodeRef, String path, String fileName, String mimetype, long size, Date modified,
+                       String contentUrl, MessageDigest contentDigest) throws IOException {
+        String sha256;
+        synchronized (digestsByContentUrl) {
+            if (contentDigest != null) {
+                sha256 = Hex.encodeHexString(contentDigest.digest());
+                if (deduplicated) {
+                    digestsByContentUrl.put(contentUrl, sha256);
+                }
+            } else {
+                sha256 = digestsByContentUrl.get(contentUrl);
+            }
+        }
+
+        String line;
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put(FIELD_NODE_REF, nodeRef);
+            entry.put(FIELD_PATH, path);
+            entry.put(FIELD_FILE, fileName);
+            entry.put(FIELD_MIMETYPE, mimetype != null ? mimetype : "");
+            entry.put(FIELD_SIZE, size);
+            if (sha256 != null) {
+                entry.put(FIELD_SHA256, sha256);
+            }
+            entry.put(FIELD_MODIFIED, modified != null ? ISO8601DateFormat.format(modified) : "");
+            line = entry.toString();
+        } catch (JSONException e) {
+            throw new IOException("Cannot write manifest entry of " + nodeRef, e);
+        }
+
+        synchronized (this) {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Write the recorded entries to disk, along with the checkpoint.
+     */
+    public synchronized void flush() throws IOException {
+        writer.flush();
+    }
+
+    public synchronized void close() {
+        IOUtils.closeQuietly(writer);
+    }
+}
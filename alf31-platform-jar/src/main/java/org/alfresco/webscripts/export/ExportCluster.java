@@ -0,0 +1,828 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distributed exports across the repository nodes of a cluster.
+ * <p>
+ * The node receiving the request splits the {@code sys:node-dbid} range of the match set into shards and publishes
+ * the plan in the repository attribute store. Every node polls the published plans and claims shards through the
+ * {@link JobLockService}; a claimed shard is exported by a regular job of the local {@link ExportJobService}
+ * into its own {@code shard-NNNN} folder of the dated export folder, on storage shared by all nodes.
+ * A shard is done once its checkpoint is completed, so a shard left by a failed node is resumed from its checkpoint
+ * by whichever node claims it next. Once every shard is done, one node merges the shard checkpoints into
+ * {@value #MANIFEST_FILE} and withdraws the plan.
+ * <p>
+ * Failed attempts are counted per shard in the attribute store, so that a shard failing on every node fails the
+ * whole export instead of being claimed forever. The outcome of the export is left in the attribute store when its
+ * plan is withdrawn; the job that published the plan stays running until it reads that outcome and finishes.
+ * That job holds the coordinator lock of the export while it follows it: when the node running it stops, another
+ * node takes the lock and adopts the export with a job of its own, and an outcome nobody is left to read is removed.
+ * The shards append their lines to the log node of the job that published the plan.
+ */
+public class ExportCluster {
+    private static final Log logger = LogFactory.getLog(ExportCluster.class);
+
+    public static final String MANIFEST_FILE = "_manifest.tsv";
+
+    private static final String ATTR_KEY_EXPORT = ".alf31Export";
+    private static final String ATTR_KEY_CLUSTER = "cluster";
+    private static final String ATTR_KEY_SHARD_FAILURES = "shardFailures";
+    private static final String ATTR_KEY_RESULT = "result";
+    private static final String LOCK_NAMESPACE = "http://www.alfresco.org/model/alf31/export/1.0";
+
+    private static final String PLAN_USER = "user";
+    private static final String PLAN_RUN_AS_USER = "runAsUser";
+    private static final String PLAN_KEYWORDS = "keywords";
+    private static final String PLAN_MIMETYPE = "mimetype";
+    private static final String PLAN_LAYOUT = "layout";
+    private static final String PLAN_COMPRESSION = "compression";
+    private static final String PLAN_CONSISTENCY = "consistency";
+    private static final String PLAN_SHARD_BOUNDS = "shardBounds";
+    private static final String PLAN_LOG = "log";
+
+    private static final String RESULT_STATE = "state";
+    private static final String RESULT_MESSAGE = "message";
+
+    private static final int MAX_SHARD_ATTEMPTS = 3;
+
+    /**
+     * A shard claimed and run by this node.
+     */
+    private static class ShardRun {
+        final String folder;
+        final int index;
+        final QName lockQName;
+        final String lockToken;
+        final ExportJob job;
+
+        ShardRun(String folder, int index, QName lockQName, String lockToken, ExportJob job) {
+            this.folder = folder;
+            this.index = index;
+            this.lockQName = lockQName;
+            this.lockToken = lockToken;
+            this.job = job;
+        }
+    }
+
+    // Shards run by this node, by shard folder; only used on the polling thread
+    private final Map<String, ShardRun> runningShards = new HashMap<>();
+
+    /**
+     * The job following a distributed export on this node, and the coordinator lock it holds.
+     */
+    private static class Coordinator {
+        final ExportJob job;
+        final QName lockQName;
+        final String lockToken;
+
+        Coordinator(ExportJob job, QName lockQName, String lockToken) {
+            this.job = job;
+            this.lockQName = lockQName;
+            this.lockToken = lockToken;
+        }
+    }
+
+    // Distributed exports published or adopted by this node, by export folder, until they end
+    private final Map<String, Coordinator> coordinators = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService poller;
+    private volatile ExportJobService.ExportTask shardTask;
+
+    private AttributeService attributeService;
+    private JobLockService jobLockService;
+    private RetryingTransactionHelper retryingTransactionHelper;
+    private ExportJobService exportJobService;
+
+    // Configuration
+    private String exportBasePath;
+    private int shardCount = 16;
+    private int nodeShards = 1;
+    private int pollInterval = 15;
+
+    public void init() {
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ExportCluster");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AuthenticationUtil.runAsSystem(new AuthenticationUtil.RunAsWork<Void>() {
+                        @Override
+                        public Void doWork() throws Exception {
+                            poll();
+                            return null;
+                        }
+                    });
+                } catch (Exception e) {
+                    logger.error("Distributed export polling failed", e);
+                }
+            }
+        }, pollInterval, pollInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop claiming shards. Shards still running are cancelled by the job service and their locks expire,
+     * so that other nodes resume them; the exports followed by this node are left for another node to adopt.
+     */
+    public void destroy() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        for (Coordinator coordinator : coordinators.values()) {
+            releaseLock(coordinator.lockQName, coordinator.lockToken);
+        }
+        coordinators.clear();
+    }
+
+    /**
+     * Set the work run by the jobs exporting a shard, i.e. the export engine.
+     */
+    public void registerShardTask(ExportJobService.ExportTask shardTask) {
+        this.shardTask = shardTask;
+    }
+
+    /**
+     * Split the given range of database ids into shards and publish the plan to all nodes.
+     * Must run in a read-write transaction.
+     *
+     * @param folder   dated export folder, relative to the export base path
+     * @param minDbId  lowest database id of the match set
+     * @param maxDbId  highest database id of the match set when planning; later documents go to the last shard
+     * @return the number of shards
+     */
+    public int publish(String folder, ExportJob job, long minDbId, long maxDbId) {
+        int shards = (int) Math.max(1, Math.min(shardCount, maxDbId - minDbId + 1));
+        long span = (maxDbId - minDbId + 1 + shards - 1) / shards;
+        ArrayList<Long> bounds = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            bounds.add(minDbId + i * span);
+        }
+
+        HashMap<String, Serializable> plan = new HashMap<>();
+        plan.put(PLAN_USER, job.getUser());
+        plan.put(PLAN_RUN_AS_USER, job.getRunAsUser());
+        plan.put(PLAN_KEYWORDS, job.getKeywords());
+        plan.put(PLAN_MIMETYPE, job.getMimetype());
+        plan.put(PLAN_LAYOUT, job.getLayout());
+        plan.put(PLAN_COMPRESSION, job.getCompression());
+        plan.put(PLAN_CONSISTENCY, job.getConsistency());
+        plan.put(PLAN_SHARD_BOUNDS, bounds);
+        if (job.getLogFileRef() != null) {
+            plan.put(PLAN_LOG, job.getLogFileRef().toString());
+        }
+        attributeService.setAttribute(plan, ATTR_KEY_EXPORT, ATTR_KEY_CLUSTER, folder);
+        logger.info(String.format("Distributed export %s published: %d shards of %d database ids", folder, shards, span));
+        return shards;
+    }
+
+    /**
+     * Keep the job that publishes a distributed export running until the export is merged, fails or is cancelled.
+     * Cancelling the job cancels the export on every node. Called before the plan is published, so that the job
+     * holds the coordinator lock of the export before any other node may adopt it.
+     *
+     * @throws LockAcquisitionException if the export is already followed
+     */
+    public void follow(String folder, ExportJob job) {
+        QName lockQName = getCoordinatorLock(folder);
+        String lockToken = jobLockService.getLock(lockQName, getLockTtl());
+        job.setDetached(true);
+        coordinators.put(folder, new Coordinator(job, lockQName, lockToken));
+    }
+
+    /**
+     * One polling round: follow the shards run by this node, claim free ones and merge completed exports.
+     */
+    private void poll() {
+        Map<String, Map<String, Serializable>> plans = readPlans();
+        followRunningShards(plans);
+        Map<String, Integer> shardFailures = readShardFailures();
+
+        for (Map.Entry<String, Map<String, Serializable>> plan : plans.entrySet()) {
+            String folder = plan.getKey();
+            @SuppressWarnings("unchecked")
+            List<Long> bounds = (List<Long>) plan.getValue().get(PLAN_SHARD_BOUNDS);
+
+            int done = 0;
+            int extracted = 0;
+            long bytes = 0;
+            for (int i = 0; i < bounds.size(); i++) {
+                String shardFolder = getShardFolder(folder, i);
+                ExportCheckpoint checkpoint = readCheckpoint(shardFolder);
+                if (checkpoint != null) {
+                    extracted += checkpoint.getExtractedCount();
+                    bytes += checkpoint.getBytesWritten();
+                }
+                Integer failures = shardFailures.get(shardFolder);
+                if (checkpoint != null && checkpoint.isCompleted()) {
+                    done++;
+                } else if (runningShards.size() < nodeShards && !runningShards.containsKey(shardFolder)
+                        && (failures == null || failures < MAX_SHARD_ATTEMPTS)) {
+                    long maxDbId = i + 1 < bounds.size() ? bounds.get(i + 1) - 1 : Long.MAX_VALUE;
+                    claimShard(folder, plan.getValue(), i, bounds.get(i), maxDbId);
+                }
+            }
+            Coordinator coordinator = coordinators.get(folder);
+            if (coordinator == null) {
+                coordinator = adopt(folder, plan.getValue());
+            }
+            if (coordinator != null) {
+                coordinator.job.restoreProgress(extracted, bytes);
+            }
+            if (done == bounds.size()) {
+                merge(folder, bounds.size());
+            }
+        }
+
+        followCoordinators(plans);
+        removeOrphanedResults();
+    }
+
+    /**
+     * Follow a published export whose coordinator lock is free, as the node that followed it stopped,
+     * with a new job of this node.
+     *
+     * @return the new coordinator, null if the export is followed by another node or the job is rejected
+     */
+    private Coordinator adopt(final String folder, Map<String, Serializable> plan) {
+        QName lockQName = getCoordinatorLock(folder);
+        String lockToken;
+        try {
+            lockToken = jobLockService.getLock(lockQName, getLockTtl());
+        } catch (LockAcquisitionException e) {
+            return null;
+        }
+
+        ExportJob job = new ExportJob((String) plan.get(PLAN_USER), (String) plan.get(PLAN_RUN_AS_USER),
+            Integer.MAX_VALUE, (String) plan.get(PLAN_KEYWORDS), (String) plan.get(PLAN_MIMETYPE));
+        job.setDistributed(true);
+        job.setLayout((String) plan.get(PLAN_LAYOUT));
+        job.setCompression((String) plan.get(PLAN_COMPRESSION));
+        job.setConsistency((String) plan.get(PLAN_CONSISTENCY));
+        job.setExportPath(Paths.get(exportBasePath, folder).toString());
+        if (plan.get(PLAN_LOG) != null) {
+            job.setLogFileRef(new NodeRef((String) plan.get(PLAN_LOG)));
+        }
+        job.setDetached(true);
+
+        Coordinator coordinator = new Coordinator(job, lockQName, lockToken);
+        coordinators.put(folder, coordinator);
+        try {
+            exportJobService.submit(job, new ExportJobService.ExportTask() {
+                @Override
+                public String execute(ExportJob job) {
+                    return String.format("Export distribué %s repris par ce serveur, le serveur qui le suivait "
+                        + "s'est arrêté.", folder);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full, adopted at a later poll
+            coordinators.remove(folder);
+            releaseLock(lockQName, lockToken);
+            return null;
+        }
+        logger.info("Distributed export " + folder + " adopted, job " + job.getId());
+        return coordinator;
+    }
+
+    /**
+     * Finish the jobs of the distributed exports followed by this node once their outcome is known,
+     * withdraw the exports whose job was cancelled and keep the coordinator locks of the others.
+     */
+    private void followCoordinators(Map<String, Map<String, Serializable>> plans) {
+        long lockTtl = getLockTtl();
+        for (Iterator<Map.Entry<String, Coordinator>> it = coordinators.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Coordinator> entry = it.next();
+            String folder = entry.getKey();
+            Coordinator coordinator = entry.getValue();
+            ExportJob job = coordinator.job;
+            if (job.isCancelRequested() && withdraw(folder, ExportJob.State.CANCELLED, "Export distribué annulé.")) {
+                logger.info("Distributed export " + folder + " cancelled");
+            }
+
+            // An adopted job is only finished once it ran
+            Map<String, Serializable> result = job.getState() != ExportJob.State.QUEUED ? takeResult(folder) : null;
+            if (result != null) {
+                if (!job.isFinished()) {
+                    job.markFinished(ExportJob.State.valueOf((String) result.get(RESULT_STATE)),
+                        (String) result.get(RESULT_MESSAGE));
+                }
+            } else if (!job.isFinished() || plans.containsKey(folder)) {
+                try {
+                    jobLockService.refreshLock(coordinator.lockToken, coordinator.lockQName, lockTtl);
+                    continue;
+                } catch (LockAcquisitionException e) {
+                    // Missed too many polls, the export was adopted by another node
+                    logger.warn("Lost the coordinator lock of distributed export " + folder);
+                    job.markFinished(ExportJob.State.FAILED, "Suivi de l'export distribué repris par un autre serveur.");
+                    it.remove();
+                    continue;
+                }
+            }
+            // Finished, or failed before its plan was published
+            releaseLock(coordinator.lockQName, coordinator.lockToken);
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove the outcomes of exports whose coordinator stopped after their plan was withdrawn:
+     * no job is left to report them, they are only logged.
+     */
+    private void removeOrphanedResults() {
+        for (String folder : readResultFolders()) {
+            if (coordinators.containsKey(folder)) {
+                continue;
+            }
+            QName lockQName = getCoordinatorLock(folder);
+            String lockToken;
+            try {
+                lockToken = jobLockService.getLock(lockQName, getLockTtl());
+            } catch (LockAcquisitionException e) {
+                // Followed by another node
+                continue;
+            }
+            try {
+                Map<String, Serializable> result = takeResult(folder);
+                if (result != null) {
+                    logger.info(String.format("Distributed export %s ended without a job following it: %s - %s",
+                        folder, result.get(RESULT_STATE), result.get(RESULT_MESSAGE)));
+                }
+            } finally {
+                releaseLock(lockQName, lockToken);
+            }
+        }
+    }
+
+    /**
+     * Keep the locks of running shards alive and release those of finished ones.
+     * A shard cancelled by its user cancels the whole distributed export.
+     */
+    private void followRunningShards(Map<String, Map<String, Serializable>> plans) {
+        long lockTtl = getLockTtl();
+        for (Iterator<Map.Entry<String, ShardRun>> it = runningShards.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, ShardRun> entry = it.next();
+            ShardRun run = entry.getValue();
+
+            if (!plans.containsKey(run.folder) && !run.job.isFinished()) {
+                // Withdrawn by another node
+                exportJobService.cancel(run.job.getId());
+            }
+
+            if (run.job.isFinished()) {
+                if (run.job.getState() == ExportJob.State.CANCELLED) {
+                    if (plans.remove(run.folder) != null
+                            && withdraw(run.folder, ExportJob.State.CANCELLED, "Export distribué annulé.")) {
+                        logger.info("Distributed export " + run.folder + " cancelled");
+                    }
+                } else if (!isShardCompleted(entry.getKey()) && plans.containsKey(run.folder)
+                        && recordShardFailure(run) >= MAX_SHARD_ATTEMPTS) {
+                    plans.remove(run.folder);
+                    logger.error("Shard " + entry.getKey() + " failed " + MAX_SHARD_ATTEMPTS
+                        + " times, distributed export " + run.folder + " failed");
+                }
+                releaseLock(run);
+                it.remove();
+                continue;
+            }
+
+            try {
+                jobLockService.refreshLock(run.lockToken, run.lockQName, lockTtl);
+            } catch (LockAcquisitionException e) {
+                // Another node may already be resuming the shard: stop writing to it
+                logger.warn("Lost the lock of shard " + entry.getKey() + ", cancelling it");
+                exportJobService.cancel(run.job.getId());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Try to claim a shard and queue its export on this node.
+     */
+    private void claimShard(String folder, Map<String, Serializable> plan, int index, long minDbId, long maxDbId) {
+        ExportJobService.ExportTask task = shardTask;
+        if (task == null) {
+            return;
+        }
+
+        String shardFolder = getShardFolder(folder, index);
+        QName lockQName = QName.createQName(LOCK_NAMESPACE, "exportShard-" + shardFolder.replace('/', '-'));
+        String lockToken;
+        try {
+            lockToken = jobLockService.getLock(lockQName, getLockTtl());
+        } catch (LockAcquisitionException e) {
+            // Claimed by another node
+            return;
+        }
+
+        ExportJob job = new ExportJob((String) plan.get(PLAN_USER), (String) plan.get(PLAN_RUN_AS_USER),
+            Integer.MAX_VALUE, (String) plan.get(PLAN_KEYWORDS), (String) plan.get(PLAN_MIMETYPE));
+        job.setShard(index, minDbId, maxDbId, shardFolder);
+        job.setLayout((String) plan.get(PLAN_LAYOUT));
+        job.setCompression((String) plan.get(PLAN_COMPRESSION));
+        job.setConsistency((String) plan.get(PLAN_CONSISTENCY));
+        if (plan.get(PLAN_LOG) != null) {
+            job.setLogFileRef(new NodeRef((String) plan.get(PLAN_LOG)));
+        }
+        if (Files.isRegularFile(Paths.get(exportBasePath, shardFolder, ExportCheckpoint.STATE_FILE))) {
+            // Left unfinished by a failed node or a previous attempt
+            job.setResumeFolder(shardFolder);
+        }
+
+        ShardRun run = new ShardRun(folder, index, lockQName, lockToken, job);
+        try {
+            exportJobService.submit(job, task);
+        } catch (RejectedExecutionException e) {
+            releaseLock(run);
+            return;
+        }
+        runningShards.put(shardFolder, run);
+        logger.info(String.format("Shard %s claimed (database ids %d to %s), job %s", shardFolder, minDbId,
+            maxDbId == Long.MAX_VALUE ? "MAX" : String.valueOf(maxDbId), job.getId()));
+    }
+
+    /**
+     * Merge the entries of all shards into the manifest of the export and withdraw its plan.
+     * The manifest lists one document per line: file path relative to the export folder, NodeRef and repository name.
+     */
+    private void merge(String folder, int shards) {
+        QName lockQName = QName.createQName(LOCK_NAMESPACE, "exportMerge-" + folder);
+        String lockToken;
+        try {
+            lockToken = jobLockService.getLock(lockQName, getLockTtl());
+        } catch (LockAcquisitionException e) {
+            return;
+        }
+
+        try {
+            if (!readPlans().containsKey(folder)) {
+                // Merged by another node meanwhile
+                return;
+            }
+
+            Path exportDir = Paths.get(exportBasePath, folder);
+            Path tmp = exportDir.resolve(MANIFEST_FILE + ".tmp");
+            int documents = 0;
+            Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+            try {
+                for (int i = 0; i < shards; i++) {
+                    String shardName = getShardName(i);
+                    for (ExportCheckpoint.Entry entry : ExportCheckpoint.readEntries(exportDir.resolve(shardName))) {
+                        writer.write(shardName + "/" + entry.getFileName() + "\t" + entry.getNodeRef() + "\t"
+                            + entry.getName().replace('\t', ' ').replace('\n', ' ') + "\n");
+                        documents++;
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(writer);
+            }
+            Files.move(tmp, exportDir.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mergeDuplicates(exportDir, shards);
+            mergeChecksums(exportDir, shards);
+
+            withdraw(folder, ExportJob.State.COMPLETED, String.format("Export distribué terminé avec succès. "
+                + "%d documents extraits en %d fragments, listés dans %s.", documents, shards, MANIFEST_FILE));
+            logger.info(String.format("Distributed export %s completed: %d documents in %d shards", folder, documents, shards));
+        } catch (IOException e) {
+            logger.error("Failed to merge the shards of distributed export " + folder, e);
+        } finally {
+            jobLockService.releaseLock(lockToken, lockQName);
+        }
+    }
+
+    /**
+     * Gather the duplicate manifests of the shards, with file names made relative to the export folder.
+     * Duplicates are only detected within a shard.
+     */
+    private void mergeDuplicates(Path exportDir, int shards) throws IOException {
+        Writer writer = null;
+        try {
+            for (int i = 0; i < shards; i++) {
+                String shardName = getShardName(i);
+                Path shardManifest = exportDir.resolve(shardName).resolve(ExportDeduplication.MANIFEST_FILE);
+                if (!Files.isRegularFile(shardManifest)) {
+                    continue;
+                }
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(exportDir.resolve(ExportDeduplication.MANIFEST_FILE), StandardCharsets.UTF_8);
+                }
+                BufferedReader reader = Files.newBufferedReader(shardManifest, StandardCharsets.UTF_8);
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] fields = line.split("\t", 3);
+                        if (fields.length == 3) {
+                            writer.write(shardName + "/" + fields[0] + "\t" + shardName + "/" + fields[1] + "\t" + fields[2] + "\n");
+                        }
+                    }
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Gather the checksum manifests of the shards, with file names made relative to the export folder,
+     * so that the whole export can be verified at once.
+     */
+    private void mergeChecksums(Path exportDir, int shards) throws IOException {
+        Writer writer = null;
+        try {
+            for (int i = 0; i < shards; i++) {
+                String shardName = getShardName(i);
+                Path shardManifest = exportDir.resolve(shardName).resolve(ExportChecksums.MANIFEST_FILE);
+                if (!Files.isRegularFile(shardManifest)) {
+                    continue;
+                }
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(exportDir.resolve(ExportChecksums.MANIFEST_FILE), StandardCharsets.UTF_8);
+                }
+                BufferedReader reader = Files.newBufferedReader(shardManifest, StandardCharsets.UTF_8);
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        try {
+                            JSONObject entry = new JSONObject(line);
+                            entry.put(ExportChecksums.FIELD_FILE, shardName + "/" + entry.getString(ExportChecksums.FIELD_FILE));
+                            writer.write(entry.toString());
+                            writer.write('\n');
+                        } catch (JSONException e) {
+                            // Partially written line of an interrupted shard run
+                        }
+                    }
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private Map<String, Map<String, Serializable>> readPlans() {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Map<String, Map<String, Serializable>>>() {
+            @Override
+            public Map<String, Map<String, Serializable>> execute() throws Throwable {
+                final Map<String, Map<String, Serializable>> plans = new LinkedHashMap<>();
+                attributeService.getAttributes(new AttributeService.AttributeQueryCallback() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public boolean handleAttribute(Long id, Serializable value, Serializable[] keys) {
+                        if (value instanceof Map && keys.length == 3) {
+                            plans.put((String) keys[2], (Map<String, Serializable>) value);
+                        }
+                        return true;
+                    }
+                }, ATTR_KEY_EXPORT, ATTR_KEY_CLUSTER);
+                return plans;
+            }
+        }, true, true);
+    }
+
+    /**
+     * Folders of the exports whose outcome is waiting to be read.
+     */
+    private List<String> readResultFolders() {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<List<String>>() {
+            @Override
+            public List<String> execute() throws Throwable {
+                final List<String> folders = new ArrayList<>();
+                attributeService.getAttributes(new AttributeService.AttributeQueryCallback() {
+                    @Override
+                    public boolean handleAttribute(Long id, Serializable value, Serializable[] keys) {
+                        if (keys.length == 3) {
+                            folders.add((String) keys[2]);
+                        }
+                        return true;
+                    }
+                }, ATTR_KEY_EXPORT, ATTR_KEY_RESULT);
+                return folders;
+            }
+        }, true, true);
+    }
+
+    /**
+     * Failed attempts of the shards of all published exports, by shard folder.
+     */
+    private Map<String, Integer> readShardFailures() {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Map<String, Integer>>() {
+            @Override
+            public Map<String, Integer> execute() throws Throwable {
+                final Map<String, Integer> failures = new HashMap<>();
+                attributeService.getAttributes(new AttributeService.AttributeQueryCallback() {
+                    @Override
+                    public boolean handleAttribute(Long id, Serializable value, Serializable[] keys) {
+                        if (value instanceof Integer && keys.length == 3) {
+                            failures.put((String) keys[2], (Integer) value);
+                        }
+                        return true;
+                    }
+                }, ATTR_KEY_EXPORT, ATTR_KEY_SHARD_FAILURES);
+                return failures;
+            }
+        }, true, true);
+    }
+
+    /**
+     * Count a failed attempt of a shard run by this node, failing the export once the shard has failed
+     * {@value #MAX_SHARD_ATTEMPTS} times on any nodes.
+     *
+     * @return the failed attempts of the shard, this one included
+     */
+    private int recordShardFailure(final ShardRun run) {
+        final String shardFolder = getShardFolder(run.folder, run.index);
+        int attempts = retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Integer>() {
+            @Override
+            public Integer execute() throws Throwable {
+                Serializable failures = attributeService.getAttribute(ATTR_KEY_EXPORT, ATTR_KEY_SHARD_FAILURES, shardFolder);
+                int attempts = (failures instanceof Integer ? (Integer) failures : 0) + 1;
+                attributeService.setAttribute(attempts, ATTR_KEY_EXPORT, ATTR_KEY_SHARD_FAILURES, shardFolder);
+                return attempts;
+            }
+        }, false, true);
+
+        logger.warn(String.format("Shard %s failed (attempt %d of %d): %s", shardFolder, attempts, MAX_SHARD_ATTEMPTS,
+            run.job.getMessage()));
+        if (attempts >= MAX_SHARD_ATTEMPTS) {
+            withdraw(run.folder, ExportJob.State.FAILED, String.format("Export distribué en échec: le fragment %s "
+                + "a échoué %d fois. Dernière erreur: %s", getShardName(run.index), attempts, run.job.getMessage()));
+        }
+        return attempts;
+    }
+
+    /**
+     * Withdraw the plan of an export and its shard failure counts, leaving its outcome for the node that published it.
+     *
+     * @return false if the plan was already withdrawn, by this node or another one
+     */
+    private boolean withdraw(final String folder, final ExportJob.State state, final String message) {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Boolean>() {
+            @Override
+            public Boolean execute() throws Throwable {
+                Serializable plan = attributeService.getAttribute(ATTR_KEY_EXPORT, ATTR_KEY_CLUSTER, folder);
+                if (!(plan instanceof Map)) {
+                    return false;
+                }
+                List<?> bounds = (List<?>) ((Map<?, ?>) plan).get(PLAN_SHARD_BOUNDS);
+                for (int i = 0; i < bounds.size(); i++) {
+                    attributeService.removeAttribute(ATTR_KEY_EXPORT, ATTR_KEY_SHARD_FAILURES, getShardFolder(folder, i));
+                }
+                attributeService.removeAttribute(ATTR_KEY_EXPORT, ATTR_KEY_CLUSTER, folder);
+
+                HashMap<String, Serializable> result = new HashMap<>();
+                result.put(RESULT_STATE, state.name());
+                result.put(RESULT_MESSAGE, message);
+                attributeService.setAttribute(result, ATTR_KEY_EXPORT, ATTR_KEY_RESULT, folder);
+                return true;
+            }
+        }, false, true);
+    }
+
+    /**
+     * Read and remove the outcome of a withdrawn export.
+     *
+     * @return the outcome, null while the export goes on
+     */
+    private Map<String, Serializable> takeResult(final String folder) {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Map<String, Serializable>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Map<String, Serializable> execute() throws Throwable {
+                Serializable result = attributeService.getAttribute(ATTR_KEY_EXPORT, ATTR_KEY_RESULT, folder);
+                if (!(result instanceof Map)) {
+                    return null;
+                }
+                attributeService.removeAttribute(ATTR_KEY_EXPORT, ATTR_KEY_RESULT, folder);
+                return (Map<String, Serializable>) result;
+            }
+        }, false, true);
+    }
+
+    private boolean isShardCompleted(String shardFolder) {
+        ExportCheckpoint checkpoint = readCheckpoint(shardFolder);
+        return checkpoint != null && checkpoint.isCompleted();
+    }
+
+    /**
+     * Checkpoint of a shard, null if it was not started or cannot be read.
+     */
+    private ExportCheckpoint readCheckpoint(String shardFolder) {
+        Path shardDir = Paths.get(exportBasePath, shardFolder);
+        if (!Files.isRegularFile(shardDir.resolve(ExportCheckpoint.STATE_FILE))) {
+            return null;
+        }
+        try {
+            return ExportCheckpoint.read(shardDir);
+        } catch (IOException e) {
+            logger.warn("Unreadable checkpoint in " + shardDir + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void releaseLock(ShardRun run) {
+        releaseLock(run.lockQName, run.lockToken);
+    }
+
+    private void releaseLock(QName lockQName, String lockToken) {
+        try {
+            jobLockService.releaseLock(lockToken, lockQName);
+        } catch (LockAcquisitionException e) {
+            // Already expired
+        }
+    }
+
+    private static QName getCoordinatorLock(String folder) {
+        return QName.createQName(LOCK_NAMESPACE, "exportCoordinator-" + folder);
+    }
+
+    /**
+     * Locks outlive a few missed polls, so that a busy node keeps its shards but a dead one loses them quickly.
+     */
+    private long getLockTtl() {
+        return TimeUnit.SECONDS.toMillis(pollInterval * 4L);
+    }
+
+    private static String getShardName(int index) {
+        return String.format("shard-%04d", index);
+    }
+
+    private static String getShardFolder(String folder, int index) {
+        return folder + "/" + getShardName(index);
+    }
+
+    // Spring setters for dependency injection
+    public void setAttributeService(AttributeService attributeService) {
+        this.attributeService = attributeService;
+    }
+
+    public void setJobLockService(JobLockService jobLockService) {
+        this.jobLockService = jobLockService;
+    }
+
+    public void setRetryingTransactionHelper(RetryingTransactionHelper retryingTransactionHelper) {
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+
+    public void setExportJobService(ExportJobService exportJobService) {
+        this.exportJobService = exportJobService;
+    }
+
+    public void setExportBasePath(String exportBasePath) {
+        this.exportBasePath = exportBasePath;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public void setNodeShards(int nodeShards) {
+        this.nodeShards = nodeShards;
+    }
+
+    public void setPollInterval(int pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+}
@@ -0,0 +1,280 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression of document content to the export directory, in the manner of pigz: the content is cut into
+ * fixed-size blocks deflated in parallel on a shared pool, each primed with the last 32 KiB of the previous block
+ * and ended on a byte boundary with a sync flush, so that the blocks concatenate into one standard gzip stream.
+ * The CRC is computed while reading, and the compressed blocks are written to the target in order as they complete,
+ * with a bounded number in flight. Content of a single block is deflated on the calling thread.
+ */
+public class ExportCompressor {
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_GZIP = "gzip";
+    public static final String MODE_ALL = "all";
+    public static final String SUFFIX = ".gz";
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private ExecutorService executor;
+
+    // Configuration
+    private int threads;
+    private int blockSize = 128 * 1024;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private List<String> skipMimetypes = new ArrayList<>();
+
+    public void init() {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        executor = Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ExportCompress-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public static boolean isMode(String mode) {
+        return MODE_NONE.equals(mode) || MODE_GZIP.equals(mode) || MODE_ALL.equals(mode);
+    }
+
+    /**
+     * Whether content of the given mimetype is compressed in the given mode: always in {@value #MODE_ALL},
+     * and in {@value #MODE_GZIP} unless it is listed as already compressed.
+     */
+    public boolean isCompressed(String mode, String mimetype) {
+        if (MODE_ALL.equals(mode)) {
+            return true;
+        }
+        if (!MODE_GZIP.equals(mode)) {
+            return false;
+        }
+        if (mimetype != null) {
+            for (String skipped : skipMimetypes) {
+                if (skipped.endsWith("*") ? mimetype.startsWith(skipped.substring(0, skipped.length() - 1)) : mimetype.equals(skipped)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compress the content to the target file, replacing it if it exists, updating the digest with the written bytes.
+     *
+     * @param digest digest of the compressed file to update, null for none
+     * @return the number of bytes written
+     */
+    public long compress(ContentReader reader, Path target, MessageDigest digest) throws IOException, InterruptedException {
+        InputStream in = null;
+        CountingOutputStream out = null;
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            in = reader.getContentInputStream();
+            OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(target), 64 * 1024);
+            out = new CountingOutputStream(digest != null ? new DigestOutputStream(fileOut, digest) : fileOut);
+            out.write(GZIP_HEADER);
+
+            CRC32 crc = new CRC32();
+            long size = 0;
+            byte[] dictionary = null;
+            byte[] block = readBlock(in);
+            while (true) {
+                crc.update(block);
+                size += block.length;
+                byte[] next = block.length == blockSize ? readBlock(in) : new byte[0];
+                boolean last = next.length == 0;
+
+                if (last && pending.isEmpty()) {
+                    // Single or final block with nothing in flight, not worth a hand-off
+                    out.write(deflate(block, dictionary, true));
+                    break;
+                }
+                pending.add(executor.submit(newBlockTask(block, dictionary, last)));
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(block, Math.max(0, block.length - DICTIONARY_SIZE), block.length);
+                block = next;
+
+                // Keep a couple of blocks per thread in flight, files may be far larger than the heap
+                while (pending.size() >= getThreads() * 2) {
+                    out.write(take(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(take(pending.poll()));
+            }
+
+            writeInt(out, (int) crc.getValue());
+            writeInt(out, (int) size);
+            out.flush();
+            return out.getCount();
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private Callable<byte[]> newBlockTask(final byte[] block, final byte[] dictionary, final boolean last) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(block, dictionary, last);
+            }
+        };
+    }
+
+    /**
+     * Deflate one block as raw deflate data ending on a byte boundary, or ending the stream for the last block.
+     */
+    private byte[] deflate(byte[] block, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(block);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A full output buffer means the flush is not complete yet
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, length);
+                } while (length == buffer.length || !deflater.needsInput());
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] readBlock(InputStream in) throws IOException {
+        byte[] block = new byte[blockSize];
+        int length = IOUtils.read(in, block);
+        return length == blockSize ? block : Arrays.copyOf(block, length);
+    }
+
+    private static byte[] take(Future<byte[]> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Little-endian, as the gzip trailer requires.
+     */
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    public int getThreads() {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Counts the bytes written to the target file.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    // Spring setters for dependency injection
+    public void setThreads(int threads) {
+        this.threads = Math.max(0, threads);
+    }
+
+    public void setBlockSize(int blockSize) {
+        // Large enough for the back-reference dictionary of the next block to be complete
+        this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+    }
+
+    public void setLevel(int level) {
+        this.level = level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION ? level : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Comma-separated mimetypes of already compressed content, a trailing {@code *} matching any suffix.
+     */
+    public void setSkipMimetypes(String skipMimetypes) {
+        List<String> mimetypes = new ArrayList<>();
+        for (String mimetype : skipMimetypes.split(",")) {
+            if (!mimetype.trim().isEmpty()) {
+                mimetypes.add(mimetype.trim());
+            }
+        }
+        this.skipMimetypes = mimetypes;
+    }
+}
@@ -0,0 +1,102 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * Copy of document content to the export directory.
+ * Content held by a {@link FileContentReader} is copied file to file with {@link FileChannel#transferTo},
+ * which lets the kernel move the bytes (sendfile / copy_file_range) without passing them through the heap.
+ * A digest has to see every byte, so when one is computed the content is copied through its input stream
+ * and hashed inline, each buffer once as it is written: zero-copy only applies to copies without a digest.
+ */
+public class ExportContentCopier {
+
+    // Bytes transferred at once
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    private final boolean zeroCopy;
+
+    public ExportContentCopier(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Copy the content to the target file, replacing it if it exists.
+     *
+     * @return the number of bytes written
+     */
+    public long copy(ContentReader reader, Path target) throws IOException {
+        return copy(reader, target, null);
+    }
+
+    /**
+     * Copy the content to the target file, replacing it if it exists, updating the digest with the copied bytes.
+     *
+     * @param digest digest to update, null for none
+     * @return the number of bytes written
+     */
+    public long copy(ContentReader reader, Path target, MessageDigest digest) throws IOException {
+        if (zeroCopy && digest == null && reader instanceof FileContentReader) {
+            File source = ((FileContentReader) reader).getFile();
+            if (source != null && source.isFile()) {
+                return transfer(source.toPath(), target);
+            }
+        }
+
+        InputStream inputStream = null;
+        try {
+            inputStream = reader.getContentInputStream();
+            if (digest != null) {
+                inputStream = new DigestInputStream(inputStream, digest);
+            }
+            return Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Whether content without a digest is copied with {@link FileChannel#transferTo}.
+     */
+    public boolean isZeroCopy() {
+        return zeroCopy;
+    }
+
+    private long transfer(Path source, Path target) throws IOException {
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            in = FileChannel.open(source, StandardOpenOption.READ);
+            out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+            // transferTo may move fewer bytes than requested, content files are immutable so the size is final
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, Math.min(size - position, TRANSFER_CHUNK), out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            return position;
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Working state of one export execution: its parameters, target directory, log, checkpoint and file names.
+ * Each running job has its own context, so that concurrent exports never share state; everything it holds
+ * is released by {@link #close()} when the job finishes.
+ */
+public class ExportContext {
+
+    private final ExportJob job;
+
+    // Handling of duplicate file names, within this export only
+    private final UniqueFileNames fileNames = new UniqueFileNames();
+
+    private String exportPath;
+    private NodeRef logFileRef;
+    private ExportLog exportLog;
+    private ExportCheckpoint checkpoint;
+    private ExportDeduplication deduplication;
+    private ExportChecksums checksums;
+    private ExportLayout layout;
+    private ExportPathResolver pathResolver;
+    private volatile boolean matchSetExhausted;
+
+    public ExportContext(ExportJob job) {
+        this.job = job;
+    }
+
+    public ExportJob getJob() {
+        return job;
+    }
+
+    public int getMaxDocs() {
+        return job.getMaxDocs();
+    }
+
+    public String getKeywords() {
+        return job.getKeywords();
+    }
+
+    public String getMimetype() {
+        return job.getMimetype();
+    }
+
+    public UniqueFileNames getFileNames() {
+        return fileNames;
+    }
+
+    /**
+     * Dated directory the documents are written to, null until it has been validated.
+     */
+    public String getExportPath() {
+        return exportPath;
+    }
+
+    public void setExportPath(String exportPath) {
+        this.exportPath = exportPath;
+    }
+
+    public NodeRef getLogFileRef() {
+        return logFileRef;
+    }
+
+    public void setLogFileRef(NodeRef logFileRef) {
+        this.logFileRef = logFileRef;
+    }
+
+    public ExportLog getExportLog() {
+        return exportLog;
+    }
+
+    public void setExportLog(ExportLog exportLog) {
+        this.exportLog = exportLog;
+    }
+
+    public ExportCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(ExportCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public ExportDeduplication getDeduplication() {
+        return deduplication;
+    }
+
+    public void setDeduplication(ExportDeduplication deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * Integrity manifest of the export, null when disabled.
+     */
+    public ExportChecksums getChecksums() {
+        return checksums;
+    }
+
+    public void setChecksums(ExportChecksums checksums) {
+        this.checksums = checksums;
+    }
+
+    /**
+     * Directory layout of the exported files, with its path resolver sized for this export only.
+     */
+    public ExportLayout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(ExportLayout layout) {
+        this.layout = layout;
+    }
+
+    public ExportPathResolver getPathResolver() {
+        return pathResolver;
+    }
+
+    public void setPathResolver(ExportPathResolver pathResolver) {
+        this.pathResolver = pathResolver;
+    }
+
+    /**
+     * Whether the search ran out of matching documents, as opposed to stopping at {@code maxDocs}.
+     */
+    public boolean isMatchSetExhausted() {
+        return matchSetExhausted;
+    }
+
+    public void setMatchSetExhausted(boolean matchSetExhausted) {
+        this.matchSetExhausted = matchSetExhausted;
+    }
+
+    /**
+     * Release the files held open by the export. The export log is closed separately,
+     * as its final flush writes to the repository.
+     */
+    public void close() {
+        if (checkpoint != null) {
+            checkpoint.close();
+            checkpoint = null;
+        }
+        if (deduplication != null) {
+            deduplication.close();
+            deduplication = null;
+        }
+        if (checksums != null) {
+            checksums.close();
+            checksums = null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplication of identical binaries within one export, keyed by content URL.
+ * Documents sharing a content URL already written by this export are output as:
+ * <ul>
+ *     <li>{@value #MODE_LINK}: a hard link to the first file, falling back to a copy where links are not supported;</li>
+ *     <li>{@value #MODE_MANIFEST}: a line in {@value #MANIFEST_FILE} (file name, original file name, NodeRef),
+ *     without any file;</li>
+ *     <li>{@value #MODE_NONE}: a full copy, as before.</li>
+ * </ul>
+ */
+public class ExportDeduplication {
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_LINK = "link";
+    public static final String MODE_MANIFEST = "manifest";
+    public static final String MANIFEST_FILE = "_duplicates.tsv";
+
+    private final Path exportDir;
+    private final String mode;
+
+    // Content URL -> first copy
+    private final ConcurrentMap<String, Original> originals = new ConcurrentHashMap<>();
+    private volatile boolean linksSupported = true;
+    private Writer manifestWriter;
+
+    private final AtomicInteger duplicateCount = new AtomicInteger(0);
+    private final AtomicLong savedBytes = new AtomicLong(0);
+
+    public ExportDeduplication(Path exportDir, String mode) {
+        this.exportDir = exportDir;
+        this.mode = MODE_LINK.equals(mode) || MODE_MANIFEST.equals(mode) ? mode : MODE_NONE;
+    }
+
+    public boolean isEnabled() {
+        return !MODE_NONE.equals(mode);
+    }
+
+    public boolean isManifest() {
+        return MODE_MANIFEST.equals(mode);
+    }
+
+    /**
+     * @return the file already holding this content, or null if it must be copied
+     */
+    public Original findOriginal(String contentUrl) {
+        return isEnabled() && contentUrl != null ? originals.get(contentUrl) : null;
+    }
+
+    /**
+     * Remember the file holding a content once it is completely written.
+     * Documents racing on the same content before that are simply copied.
+     */
+    public void recordOriginal(String contentUrl, String fileName, long size) {
+        if (isEnabled() && contentUrl != null) {
+            originals.putIfAbsent(contentUrl, new Original(fileName, size));
+        }
+    }
+
+    /**
+     * Output a duplicate of an already written file.
+     *
+     * @return false if the duplicate could not be linked and must be copied instead
+     */
+    public boolean writeDuplicate(Original original, String fileName, String nodeRef) throws IOException {
+        if (MODE_MANIFEST.equals(mode)) {
+            writeManifestLine(fileName + "\t" + original.getFileName() + "\t" + nodeRef + "\n");
+        } else {
+            if (!linksSupported) {
+                return false;
+            }
+            Path target = exportDir.resolve(fileName);
+            Path source = exportDir.resolve(original.getFileName());
+            if (!Files.isRegularFile(source)) {
+                // Removed since it was written: copied, without giving up links for the rest of the export
+                return false;
+            }
+            try {
+                // A file left by an interrupted run without a checkpoint entry is replaced
+                Files.deleteIfExists(target);
+                Files.createLink(target, source);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                linksSupported = false;
+                return false;
+            }
+        }
+        duplicateCount.incrementAndGet();
+        savedBytes.addAndGet(original.getSize());
+        return true;
+    }
+
+    private synchronized void writeManifestLine(String line) throws IOException {
+        if (manifestWriter == null) {
+            manifestWriter = Files.newBufferedWriter(exportDir.resolve(MANIFEST_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        manifestWriter.write(line);
+        // Kept in step with the checkpoint entries, which are flushed after each batch
+        manifestWriter.flush();
+    }
+
+    public synchronized void close() {
+        IOUtils.closeQuietly(manifestWriter);
+        manifestWriter = null;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * A file written by this export, with its size on disk: compressed, for a compressed export.
+     */
+    public static final class Original {
+
+        private final String fileName;
+        private final long size;
+
+        Original(String fileName, long size) {
+            this.fileName = fileName;
+            this.size = size;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.Date;
+
+/**
+ * What writing one document needs from the repository, read in a read-only transaction.
+ * The content is then written from the reader after that transaction has ended, so that neither
+ * a slow copy nor the throttle holds a transaction open.
+ */
+public class ExportDocument {
+
+    private final NodeRef nodeRef;
+    private final String name;
+    private final ContentReader reader;
+    private final String relativePath;
+    private final String repositoryPath;
+    private final Date modified;
+
+    public ExportDocument(NodeRef nodeRef, String name, ContentReader reader, String relativePath,
+                          String repositoryPath, Date modified) {
+        this.nodeRef = nodeRef;
+        this.name = name;
+        this.reader = reader;
+        this.relativePath = relativePath;
+        this.repositoryPath = repositoryPath;
+        this.modified = modified;
+    }
+
+    public NodeRef getNodeRef() {
+        return nodeRef;
+    }
+
+    /**
+     * The name of the node, or a name made from its id when it has none.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the content, null if the document has none
+     */
+    public ContentReader getReader() {
+        return reader;
+    }
+
+    /**
+     * Path of the document in the export layout, before duplicate names are suffixed.
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * Display path of the document in the repository, only read for the integrity manifest.
+     */
+    public String getRepositoryPath() {
+        return repositoryPath;
+    }
+
+    public Date getModified() {
+        return modified;
+    }
+}
@@ -0,0 +1,448 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State and progress of a single asynchronous export, as seen by the status webscripts.
+ */
+public class ExportJob {
+
+    public enum State { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final long createdAt = System.currentTimeMillis();
+
+    // Caller identity, replayed on the worker thread
+    private final String user;
+    private final String runAsUser;
+
+    // Export parameters
+    private final int maxDocs;
+    private final String keywords;
+    private final String mimetype;
+    private volatile boolean incremental;
+    private volatile boolean includeDeletions;
+    private volatile boolean distributed;
+    private volatile String layout;
+    private volatile String compression;
+    private volatile String consistency;
+
+    // Shard of a distributed export run by this job, -1 for a regular export
+    private volatile int shardIndex = -1;
+    private volatile long minDbId = -1;
+    private volatile long maxDbId = Long.MAX_VALUE;
+    private volatile String targetFolder;
+
+    // Repository log node, the one of its distributed export for a shard
+    private volatile NodeRef logFileRef;
+
+    // Export folder checked against its checksum manifest instead of exporting, null for an export
+    private volatile String verifyFolder;
+
+    // Dry run sizing the export instead of running it, and its result once done
+    private volatile boolean dryRun;
+    private volatile Map<String, Object> planModel;
+
+    // Progress
+    private volatile State state = State.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile int skipCount;
+    private volatile long cursor = -1;
+    private volatile String exportPath;
+    private volatile String resumeFolder;
+    private volatile Date modifiedSince;
+    private volatile Date nextWatermark;
+    private volatile String message;
+    private volatile boolean detached;
+    private volatile boolean cancelRequested;
+    private final AtomicInteger extractedCount = new AtomicInteger(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+
+    private volatile Future<?> future;
+
+    public ExportJob(String user, String runAsUser, int maxDocs, String keywords, String mimetype) {
+        this.user = user;
+        this.runAsUser = runAsUser;
+        this.maxDocs = maxDocs;
+        this.keywords = keywords;
+        this.mimetype = mimetype;
+    }
+
+    /**
+     * Record one extracted document.
+     *
+     * @return the number of documents extracted so far, including this one
+     */
+    public int documentExtracted(long size) {
+        bytesWritten.addAndGet(size);
+        return extractedCount.incrementAndGet();
+    }
+
+    /**
+     * Start the counters from the progress of a previous run of a resumed export.
+     */
+    public void restoreProgress(int extracted, long bytes) {
+        extractedCount.set(extracted);
+        bytesWritten.set(bytes);
+    }
+
+    /**
+     * Estimated seconds until {@code maxDocs} is reached, based on the throughput so far.
+     * Returns -1 when no estimate is available yet.
+     */
+    public long getEtaSeconds() {
+        int extracted = extractedCount.get();
+        if (state != State.RUNNING || extracted == 0 || shardIndex >= 0 || distributed) {
+            return -1;
+        }
+        long elapsed = System.currentTimeMillis() - startedAt;
+        int remaining = Math.max(0, maxDocs - extracted);
+        return (long) (remaining * (elapsed / (double) extracted)) / 1000;
+    }
+
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    synchronized void markRunning() {
+        this.state = State.RUNNING;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    synchronized void setMessage(String message) {
+        this.message = message;
+    }
+
+    synchronized void markFinished(State finalState, String message) {
+        this.state = finalState;
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Build the template model describing this job.
+     */
+    public Map<String, Object> toModel() {
+        Map<String, Object> model = new HashMap<>();
+        long now = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+
+        model.put("jobId", id);
+        model.put("status", state.name());
+        model.put("user", user != null ? user : "");
+        model.put("maxDocs", maxDocs);
+        model.put("keywords", keywords != null ? keywords : "");
+        model.put("mimetype", mimetype != null ? mimetype : "");
+        model.put("extractedCount", extractedCount.get());
+        model.put("bytesWritten", bytesWritten.get());
+        model.put("skipCount", skipCount);
+        model.put("cursor", cursor);
+        model.put("exportPath", exportPath != null ? exportPath : "");
+        model.put("resumeFolder", resumeFolder != null ? resumeFolder : "");
+        model.put("incremental", incremental);
+        model.put("distributed", distributed);
+        model.put("layout", layout != null ? layout : "");
+        model.put("compression", compression != null ? compression : "");
+        model.put("consistency", consistency != null ? consistency : "");
+        model.put("verifyFolder", verifyFolder != null ? verifyFolder : "");
+        model.put("dryRun", dryRun);
+        if (planModel != null) {
+            model.put("plan", planModel);
+        }
+        model.put("shardIndex", shardIndex);
+        model.put("modifiedSince", modifiedSince != null ? modifiedSince.getTime() : -1L);
+        model.put("message", message != null ? message : "");
+        model.put("createdAt", createdAt);
+        model.put("startedAt", startedAt);
+        model.put("finishedAt", finishedAt);
+        model.put("duration", startedAt > 0 ? (now - startedAt) / 1000 : 0);
+        model.put("etaSeconds", getEtaSeconds());
+        return model;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getRunAsUser() {
+        return runAsUser;
+    }
+
+    public int getMaxDocs() {
+        return maxDocs;
+    }
+
+    public String getKeywords() {
+        return keywords;
+    }
+
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Whether an incremental export also lists the matching documents deleted since the watermark.
+     */
+    public boolean isIncludeDeletions() {
+        return includeDeletions;
+    }
+
+    public void setIncludeDeletions(boolean includeDeletions) {
+        this.includeDeletions = includeDeletions;
+    }
+
+    /**
+     * Whether the export is split into shards run by all the repository nodes of the cluster.
+     */
+    public boolean isDistributed() {
+        return distributed;
+    }
+
+    public void setDistributed(boolean distributed) {
+        this.distributed = distributed;
+    }
+
+    /**
+     * Directory layout of the exported files, see {@link ExportLayout}; null for the configured default.
+     */
+    public String getLayout() {
+        return layout;
+    }
+
+    public void setLayout(String layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Compression of the exported files, see {@link ExportCompressor}; null for the configured default.
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Name of the {@link org.alfresco.service.cmr.search.QueryConsistency} of the searches; null for the configured default.
+     */
+    public String getConsistency() {
+        return consistency;
+    }
+
+    public void setConsistency(String consistency) {
+        this.consistency = consistency;
+    }
+
+    /**
+     * Make this job export one shard of a distributed export: the documents whose {@code sys:node-dbid}
+     * is within the given bounds, both included, into the given folder of the export base path.
+     */
+    public void setShard(int shardIndex, long minDbId, long maxDbId, String targetFolder) {
+        this.shardIndex = shardIndex;
+        this.minDbId = minDbId;
+        this.maxDbId = maxDbId;
+        this.targetFolder = targetFolder;
+    }
+
+    /**
+     * Log node of the export, null until it is created. Set before a shard runs to the log of its distributed
+     * export, which the shard appends to instead of creating its own.
+     */
+    public NodeRef getLogFileRef() {
+        return logFileRef;
+    }
+
+    public void setLogFileRef(NodeRef logFileRef) {
+        this.logFileRef = logFileRef;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public long getMinDbId() {
+        return minDbId;
+    }
+
+    public long getMaxDbId() {
+        return maxDbId;
+    }
+
+    /**
+     * Folder of the export base path to write to instead of a new dated folder, null if none.
+     */
+    public String getTargetFolder() {
+        return targetFolder;
+    }
+
+    /**
+     * Export folder whose files this job checks against their checksum manifest, null for an export.
+     */
+    public String getVerifyFolder() {
+        return verifyFolder;
+    }
+
+    public void setVerifyFolder(String verifyFolder) {
+        this.verifyFolder = verifyFolder;
+    }
+
+    /**
+     * Whether this job only sizes the export, see {@link ExportPlan}.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Template model of the plan computed by a dry run, null until it is complete.
+     */
+    public Map<String, Object> getPlanModel() {
+        return planModel;
+    }
+
+    public void setPlanModel(Map<String, Object> planModel) {
+        this.planModel = planModel;
+    }
+
+    /**
+     * Watermark of the previous incremental run, null for a full export.
+     */
+    public Date getModifiedSince() {
+        return modifiedSince;
+    }
+
+    public void setModifiedSince(Date modifiedSince) {
+        this.modifiedSince = modifiedSince;
+    }
+
+    /**
+     * Watermark to store once this incremental run has exported the whole match set.
+     */
+    public Date getNextWatermark() {
+        return nextWatermark;
+    }
+
+    public void setNextWatermark(Date nextWatermark) {
+        this.nextWatermark = nextWatermark;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getExtractedCount() {
+        return extractedCount.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public int getSkipCount() {
+        return skipCount;
+    }
+
+    public void setSkipCount(int skipCount) {
+        this.skipCount = skipCount;
+    }
+
+    /**
+     * Last {@code sys:node-dbid} seen by keyset pagination, -1 before the first batch.
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(long cursor) {
+        this.cursor = cursor;
+    }
+
+    public String getExportPath() {
+        return exportPath;
+    }
+
+    public void setExportPath(String exportPath) {
+        this.exportPath = exportPath;
+    }
+
+    /**
+     * Dated export folder whose checkpoint this job continues, null for a new export.
+     */
+    public String getResumeFolder() {
+        return resumeFolder;
+    }
+
+    public void setResumeFolder(String resumeFolder) {
+        this.resumeFolder = resumeFolder;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Whether the job goes on once its task has returned: it then stays running until the component
+     * it was handed to finishes it, as the cluster does with a distributed export once it is merged.
+     */
+    public boolean isDetached() {
+        return detached;
+    }
+
+    void setDetached(boolean detached) {
+        this.detached = detached;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    Future<?> getFuture() {
+        return future;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+}
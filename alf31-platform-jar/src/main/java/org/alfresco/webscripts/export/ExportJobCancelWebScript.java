@@ -0,0 +1,39 @@
+package org.alfresco.webscripts.export;
+
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WebScript cancelling a queued or running export job.
+ */
+public class ExportJobCancelWebScript extends DeclarativeWebScript {
+    private ExportJobService exportJobService;
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+        String jobId = req.getServiceMatch().getTemplateVars().get("jobId");
+        ExportJob job = exportJobService.getJob(jobId);
+        if (job == null) {
+            throw new WebScriptException(Status.STATUS_NOT_FOUND, "Unknown export job: " + jobId);
+        }
+        if (!exportJobService.isAccessible(job)) {
+            throw new WebScriptException(Status.STATUS_FORBIDDEN, "Export job of another user: " + jobId);
+        }
+        if (!exportJobService.cancel(jobId)) {
+            throw new WebScriptException(Status.STATUS_CONFLICT, "Export job already finished: " + jobId);
+        }
+        Map<String, Object> model = new HashMap<>();
+        model.put("job", job.toModel());
+        return model;
+    }
+
+    public void setExportJobService(ExportJobService exportJobService) {
+        this.exportJobService = exportJobService;
+    }
+}
@@ -0,0 +1,36 @@
+package org.alfresco.webscripts.export;
+
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WebScript listing queued, running and recently finished export jobs, those of all users for an administrator.
+ */
+public class ExportJobListWebScript extends DeclarativeWebScript {
+    private ExportJobService exportJobService;
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        for (ExportJob job : exportJobService.getJobs()) {
+            if (exportJobService.isAccessible(job)) {
+                jobs.add(job.toModel());
+            }
+        }
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("jobs", jobs);
+        return model;
+    }
+
+    public void setExportJobService(ExportJobService exportJobService) {
+        this.exportJobService = exportJobService;
+    }
+}
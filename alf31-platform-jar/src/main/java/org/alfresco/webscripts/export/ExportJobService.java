@@ -0,0 +1,333 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs export jobs in the background and keeps track of them so that their progress can be polled,
+ * listed and cancelled.
+ * At most {@code maxConcurrent} jobs run at once. The others wait in per-user queues that are served
+ * round-robin, so one user submitting many exports does not hold back the exports of the others.
+ * Archive streams, which run on the request thread, take a slot as well.
+ * A job is only visible to the user who submitted it and to administrators.
+ */
+public class ExportJobService {
+    private static final Log logger = LogFactory.getLog(ExportJobService.class);
+
+    /**
+     * Work performed for a job on the executor thread. Returns the final job message.
+     */
+    public interface ExportTask {
+        String execute(ExportJob job) throws Exception;
+    }
+
+    /**
+     * A job waiting for a free execution slot.
+     */
+    private static class PendingJob {
+        final ExportJob job;
+        final ExportTask task;
+
+        PendingJob(ExportJob job, ExportTask task) {
+            this.job = job;
+            this.task = task;
+        }
+    }
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    // Waiting jobs by user, the user served next first; guarded by this
+    private final LinkedHashMap<String, Deque<PendingJob>> pending = new LinkedHashMap<>();
+    private int pendingCount;
+    private int running;
+
+    private ThreadPoolExecutor executor;
+    private AuthorityService authorityService;
+
+    // Configuration
+    private int maxConcurrent = 2;
+    private int queueSize = 10;
+    private int historySize = 50;
+
+    /**
+     * Start the executor. Jobs are only handed to it when a slot is free, so its own queue stays empty.
+     */
+    public void init() {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ExportJob-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Stop accepting jobs and ask running ones to stop.
+     */
+    public void destroy() {
+        synchronized (this) {
+            for (Deque<PendingJob> userQueue : pending.values()) {
+                for (PendingJob pendingJob : userQueue) {
+                    pendingJob.job.markFinished(ExportJob.State.CANCELLED, "Export annulé avant démarrage.");
+                }
+            }
+            pending.clear();
+            pendingCount = 0;
+        }
+        if (executor != null) {
+            for (ExportJob job : jobs.values()) {
+                if (!job.isFinished()) {
+                    job.requestCancel();
+                }
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue a job for execution, behind the other jobs of the same user.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public ExportJob submit(ExportJob job, ExportTask task) {
+        synchronized (this) {
+            if (pendingCount >= queueSize) {
+                throw new RejectedExecutionException("Export queue is full (" + queueSize + " jobs waiting)");
+            }
+            Deque<PendingJob> userQueue = pending.get(job.getUser());
+            if (userQueue == null) {
+                userQueue = new ArrayDeque<>();
+                pending.put(job.getUser(), userQueue);
+            }
+            userQueue.addLast(new PendingJob(job, task));
+            pendingCount++;
+            jobs.put(job.getId(), job);
+        }
+        logger.info("Export job queued: " + job.getId());
+        dispatch();
+        return job;
+    }
+
+    /**
+     * Start waiting jobs while execution slots are free, taking the next job of each user in turn.
+     */
+    private synchronized void dispatch() {
+        while (running < maxConcurrent && pendingCount > 0) {
+            Iterator<Map.Entry<String, Deque<PendingJob>>> users = pending.entrySet().iterator();
+            Map.Entry<String, Deque<PendingJob>> next = users.next();
+            final PendingJob pendingJob = next.getValue().pollFirst();
+            users.remove();
+            if (!next.getValue().isEmpty()) {
+                // Back to the end of the round
+                pending.put(next.getKey(), next.getValue());
+            }
+            pendingCount--;
+            running++;
+
+            try {
+                pendingJob.job.setFuture(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runJob(pendingJob.job, pendingJob.task);
+                        } finally {
+                            jobDone();
+                        }
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                running--;
+                pendingJob.job.markFinished(ExportJob.State.FAILED, "Export annulé: service arrêté.");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take an execution slot for work run outside of the executor, without queueing.
+     * Must be followed by {@link #releaseSlot()}.
+     *
+     * @throws RejectedExecutionException if all slots are busy
+     */
+    public synchronized void acquireSlot() {
+        if (running >= maxConcurrent) {
+            throw new RejectedExecutionException("All " + maxConcurrent + " export slots are busy");
+        }
+        running++;
+    }
+
+    /**
+     * Release a slot taken by {@link #acquireSlot()}.
+     */
+    public void releaseSlot() {
+        jobDone();
+    }
+
+    /**
+     * Release the slot of a finished job and start the next one.
+     */
+    private void jobDone() {
+        synchronized (this) {
+            running--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Execute a job as the user who submitted it.
+     */
+    private void runJob(final ExportJob job, final ExportTask task) {
+        if (job.isCancelRequested()) {
+            job.markFinished(ExportJob.State.CANCELLED, "Export annulé avant démarrage.");
+            return;
+        }
+
+        job.markRunning();
+        try {
+            AuthenticationUtil.setFullyAuthenticatedUser(job.getUser());
+            String message = AuthenticationUtil.runAs(new AuthenticationUtil.RunAsWork<String>() {
+                @Override
+                public String doWork() throws Exception {
+                    return task.execute(job);
+                }
+            }, job.getRunAsUser() != null ? job.getRunAsUser() : job.getUser());
+
+            if (job.isDetached() && !job.isCancelRequested()) {
+                // Finished later by the component the job was handed to, the slot is released now
+                job.setMessage(message);
+            } else {
+                job.markFinished(job.isCancelRequested() ? ExportJob.State.CANCELLED : ExportJob.State.COMPLETED, message);
+            }
+        } catch (Exception e) {
+            logger.error("Export job failed: " + job.getId(), e);
+            job.markFinished(ExportJob.State.FAILED, "Erreur lors de l'export: " + e.getMessage());
+        } finally {
+            AuthenticationUtil.clearCurrentSecurityContext();
+            job.setFuture(null);
+            evictFinishedJobs();
+        }
+    }
+
+    /**
+     * Cancel a job. A queued job is dropped immediately, a running job stops after the current document.
+     *
+     * @return false if the job is unknown or already finished
+     */
+    public boolean cancel(String jobId) {
+        ExportJob job = jobs.get(jobId);
+        if (job == null || job.isFinished()) {
+            return false;
+        }
+
+        job.requestCancel();
+        if (removePending(job)) {
+            job.markFinished(ExportJob.State.CANCELLED, "Export annulé avant démarrage.");
+            evictFinishedJobs();
+        }
+        logger.info("Export job cancel requested: " + jobId);
+        return true;
+    }
+
+    /**
+     * Take a job out of the waiting queues.
+     *
+     * @return false if the job is not waiting, because it already started
+     */
+    private synchronized boolean removePending(ExportJob job) {
+        Deque<PendingJob> userQueue = pending.get(job.getUser());
+        if (userQueue == null) {
+            return false;
+        }
+        for (Iterator<PendingJob> it = userQueue.iterator(); it.hasNext(); ) {
+            if (it.next().job == job) {
+                it.remove();
+                pendingCount--;
+                if (userQueue.isEmpty()) {
+                    pending.remove(job.getUser());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ExportJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Whether the current user may see and cancel a job: the user who submitted it, or an administrator.
+     */
+    public boolean isAccessible(ExportJob job) {
+        String user = AuthenticationUtil.getFullyAuthenticatedUser();
+        return user != null && (user.equals(job.getUser()) || authorityService.isAdminAuthority(user));
+    }
+
+    /**
+     * All known jobs, most recent first.
+     */
+    public List<ExportJob> getJobs() {
+        List<ExportJob> list = new ArrayList<>(jobs.values());
+        Collections.sort(list, new Comparator<ExportJob>() {
+            @Override
+            public int compare(ExportJob a, ExportJob b) {
+                return Long.compare(b.getCreatedAt(), a.getCreatedAt());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Keep only the most recent finished jobs.
+     */
+    private void evictFinishedJobs() {
+        int finished = 0;
+        for (ExportJob job : getJobs()) {
+            if (job.isFinished() && ++finished > historySize) {
+                jobs.remove(job.getId());
+            }
+        }
+    }
+
+    // Spring setters for dependency injection
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+
+    public void setAuthorityService(AuthorityService authorityService) {
+        this.authorityService = authorityService;
+    }
+}
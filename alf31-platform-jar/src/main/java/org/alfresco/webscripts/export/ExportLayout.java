@@ -0,0 +1,111 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Directory layout of the exported files below the export directory.
+ * <ul>
+ *     <li>{@value #LAYOUT_FLAT}: every file directly in the export directory, as before;</li>
+ *     <li>{@value #LAYOUT_MIRROR}: the repository folder hierarchy, e.g. {@code Company Home/Sites/site/documentLibrary};</li>
+ *     <li>{@value #LAYOUT_HASHED}: {@code depth} levels of {@code fanout} subdirectories chosen from a hash of the
+ *     NodeRef, which keeps every directory small whatever the size of the export.</li>
+ * </ul>
+ */
+public class ExportLayout {
+
+    public static final String LAYOUT_FLAT = "flat";
+    public static final String LAYOUT_MIRROR = "mirror";
+    public static final String LAYOUT_HASHED = "hashed";
+
+    private final String mode;
+    private final int fanout;
+    private final int depth;
+    private final String levelFormat;
+    private final ExportPathResolver pathResolver;
+
+    // Directories known to exist, so that each is only created once
+    private final Set<Path> createdDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * @param pathResolver resolver of repository folder paths, only used by the mirror layout
+     */
+    public ExportLayout(String mode, int fanout, int depth, ExportPathResolver pathResolver) {
+        this.mode = LAYOUT_MIRROR.equals(mode) || LAYOUT_HASHED.equals(mode) ? mode : LAYOUT_FLAT;
+        this.fanout = Math.max(2, Math.min(fanout, 65536));
+        this.depth = Math.max(1, Math.min(depth, 4));
+        this.levelFormat = "%0" + Integer.toHexString(this.fanout - 1).length() + "x";
+        this.pathResolver = pathResolver;
+    }
+
+    public static boolean isLayout(String mode) {
+        return LAYOUT_FLAT.equals(mode) || LAYOUT_MIRROR.equals(mode) || LAYOUT_HASHED.equals(mode);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Relative path of a document's file in the export, from its repository name.
+     */
+    public String getRelativePath(NodeRef nodeRef, String fileName) {
+        String directory = getDirectory(nodeRef);
+        return directory.isEmpty() ? fileName : directory + "/" + fileName;
+    }
+
+    private String getDirectory(NodeRef nodeRef) {
+        if (LAYOUT_MIRROR.equals(mode)) {
+            return sanitize(pathResolver.getParentPath(nodeRef));
+        }
+        if (LAYOUT_HASHED.equals(mode)) {
+            byte[] hash = DigestUtils.md5(nodeRef.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder directory = new StringBuilder();
+            for (int level = 0; level < depth; level++) {
+                int value = ((hash[level * 2] & 0xff) << 8 | (hash[level * 2 + 1] & 0xff)) % fanout;
+                if (level > 0) {
+                    directory.append('/');
+                }
+                directory.append(String.format(levelFormat, value));
+            }
+            return directory.toString();
+        }
+        return "";
+    }
+
+    /**
+     * Repository names never hold a slash, but a folder called {@code ..} must not lead out of the export.
+     */
+    private static String sanitize(String path) {
+        if (!path.contains(".")) {
+            return path;
+        }
+        StringBuilder sanitized = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (sanitized.length() > 0) {
+                sanitized.append('/');
+            }
+            sanitized.append(".".equals(segment) || "..".equals(segment) ? "_" : segment);
+        }
+        return sanitized.toString();
+    }
+
+    /**
+     * Create the directory of a file about to be written, if not done already.
+     */
+    public void createParentDirectory(Path file) throws IOException {
+        Path directory = file.getParent();
+        if (directory != null && !LAYOUT_FLAT.equals(mode) && !createdDirectories.contains(directory)) {
+            Files.createDirectories(directory);
+            createdDirectories.add(directory);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only sink for the export log node.
+ * Lines are appended to a local temp file, and added to the content of the repository node once
+ * when the log is closed: one content binary per export, whatever the number of lines.
+ * Any thread may append, appending only takes the lock of the local file.
+ * <p>
+ * The shards of a distributed export share the log of the export, each one adds its lines when it ends.
+ */
+public class ExportLog {
+    private static final Log logger = LogFactory.getLog(ExportLog.class);
+
+    private final NodeRef logFileRef;
+    private final ContentService contentService;
+    private final RetryingTransactionHelper retryingTransactionHelper;
+    private final ExportMetrics metrics;
+
+    private final File bufferFile;
+    private final Writer bufferWriter;
+    private boolean closed;
+
+    /**
+     * @param metrics receives the duration of the write to the repository
+     */
+    public ExportLog(NodeRef logFileRef, ContentService contentService, RetryingTransactionHelper retryingTransactionHelper,
+                     ExportMetrics metrics) throws IOException {
+        this.logFileRef = logFileRef;
+        this.contentService = contentService;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.metrics = metrics;
+
+        this.bufferFile = TempFileProvider.createTempFile("export-log-", ".log");
+        this.bufferWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(bufferFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Append a formatted line to the local buffer.
+     */
+    public synchronized void append(String line) {
+        if (closed) {
+            return;
+        }
+        try {
+            bufferWriter.write(line);
+        } catch (IOException e) {
+            logger.error("Failed to buffer export log line", e);
+        }
+    }
+
+    /**
+     * Stop buffering and add the log to the repository node, in a small write transaction of its own
+     * taken outside the lock, as the export around it only runs read-only transactions.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOUtils.closeQuietly(bufferWriter);
+        }
+
+        long start = System.nanoTime();
+        try {
+            retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>() {
+                @Override
+                public Void execute() throws Throwable {
+                    ContentWriter writer = contentService.getWriter(logFileRef, ContentModel.PROP_CONTENT, true);
+                    writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
+                    writer.setEncoding("UTF-8");
+                    ContentReader existing = contentService.getReader(logFileRef, ContentModel.PROP_CONTENT);
+                    if (existing != null && existing.exists()) {
+                        // Read again on a retry, so that the lines of a shard added meanwhile are kept
+                        writer.putContent(new SequenceInputStream(existing.getContentInputStream(),
+                            new FileInputStream(bufferFile)));
+                    } else {
+                        writer.putContent(bufferFile);
+                    }
+                    return null;
+                }
+            }, false, true);
+        } catch (Exception e) {
+            logger.error("Failed to write export log to repository, lines kept in " + bufferFile, e);
+            return;
+        } finally {
+            metrics.record(ExportMetrics.PHASE_LOG_FLUSH, System.nanoTime() - start);
+        }
+        if (!bufferFile.delete()) {
+            bufferFile.deleteOnExit();
+        }
+    }
+
+    public NodeRef getLogFileRef() {
+        return logFileRef;
+    }
+}
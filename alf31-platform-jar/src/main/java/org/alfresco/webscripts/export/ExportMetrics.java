@@ -0,0 +1,238 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and per-phase latency histograms of the exports, registered as an MXBean
+ * and served as JSON by {@code /api/export/metrics}.
+ * Phases tell whether a slow export is bound by the search, the content store or the target disk.
+ */
+public class ExportMetrics implements ExportMetricsMXBean {
+    private static final Log logger = LogFactory.getLog(ExportMetrics.class);
+
+    public static final String PHASE_SEARCH = "search";
+    public static final String PHASE_SEARCH_WAIT = "searchWait";
+    public static final String PHASE_PREFETCH = "prefetch";
+    public static final String PHASE_GET_READER = "getReader";
+    public static final String PHASE_COPY = "copy";
+    public static final String PHASE_ALLOCATE = "allocateFileName";
+    public static final String PHASE_LOG_FLUSH = "logFlush";
+    public static final String PHASE_THROTTLE = "throttleWait";
+
+    private final Map<String, LatencyHistogram> phases;
+
+    private final AtomicLong exportsStarted = new AtomicLong();
+    private final AtomicLong documentsExtracted = new AtomicLong();
+    private final AtomicLong documentsSkipped = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    // Current or last export
+    private int activeExports;
+    private volatile long runStartedAt;
+    private volatile long runFinishedAt;
+    private final AtomicLong runDocuments = new AtomicLong();
+    private final AtomicLong runBytes = new AtomicLong();
+
+    // Configuration
+    private String objectName = "Alfresco:Name=Alf31Export,Type=ExportMetrics";
+    private ObjectName registeredName;
+
+    public ExportMetrics() {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (String phase : new String[] {PHASE_SEARCH, PHASE_SEARCH_WAIT, PHASE_PREFETCH, PHASE_GET_READER, PHASE_COPY, PHASE_ALLOCATE, PHASE_LOG_FLUSH, PHASE_THROTTLE}) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+        this.phases = Collections.unmodifiableMap(histograms);
+    }
+
+    public void init() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            // Left over by a previous deployment of the module in the same JVM
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (Exception e) {
+            logger.warn("Export metrics not registered with JMX as " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    public void destroy() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (Exception e) {
+                logger.warn("Failed to unregister export metrics: " + e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Record the duration of one call of a phase, measured with {@link System#nanoTime()}.
+     */
+    public void record(String phase, long nanos) {
+        LatencyHistogram histogram = phases.get(phase);
+        if (histogram != null) {
+            histogram.record(nanos);
+        }
+    }
+
+    /**
+     * A run spans overlapping exports: its counters restart with the first export and it ends with the last one.
+     */
+    public synchronized void exportStarted() {
+        exportsStarted.incrementAndGet();
+        if (activeExports++ == 0) {
+            runDocuments.set(0);
+            runBytes.set(0);
+            runFinishedAt = 0;
+            runStartedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void exportFinished() {
+        if (--activeExports == 0) {
+            runFinishedAt = System.currentTimeMillis();
+        }
+    }
+
+    public void documentExtracted(long bytes) {
+        documentsExtracted.incrementAndGet();
+        bytesCopied.addAndGet(bytes);
+        runDocuments.incrementAndGet();
+        runBytes.addAndGet(bytes);
+    }
+
+    public void documentSkipped() {
+        documentsSkipped.incrementAndGet();
+    }
+
+    @Override
+    public long getExportsStarted() {
+        return exportsStarted.get();
+    }
+
+    @Override
+    public synchronized int getActiveExports() {
+        return activeExports;
+    }
+
+    @Override
+    public long getDocumentsExtracted() {
+        return documentsExtracted.get();
+    }
+
+    @Override
+    public long getDocumentsSkipped() {
+        return documentsSkipped.get();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    @Override
+    public double getDocsPerSecond() {
+        double seconds = getRunSeconds();
+        return seconds > 0 ? runDocuments.get() / seconds : 0;
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        double seconds = getRunSeconds();
+        return seconds > 0 ? runBytes.get() / (1024.0 * 1024) / seconds : 0;
+    }
+
+    @Override
+    public double getCopyMegabytesPerSecondPerThread() {
+        // Copy time summed across the worker threads
+        double seconds = phases.get(PHASE_COPY).getTotalMillis() / 1000.0;
+        return seconds > 0 ? bytesCopied.get() / (1024.0 * 1024) / seconds : 0;
+    }
+
+    private double getRunSeconds() {
+        long start = runStartedAt;
+        if (start == 0) {
+            return 0;
+        }
+        long end = runFinishedAt >= start ? runFinishedAt : System.currentTimeMillis();
+        return (end - start) / 1000.0;
+    }
+
+    @Override
+    public List<PhaseStatistics> getPhases() {
+        List<PhaseStatistics> statistics = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> phase : phases.entrySet()) {
+            statistics.add(new PhaseStatistics(phase.getKey(), phase.getValue()));
+        }
+        return statistics;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : phases.values()) {
+            histogram.reset();
+        }
+        exportsStarted.set(0);
+        documentsExtracted.set(0);
+        documentsSkipped.set(0);
+        bytesCopied.set(0);
+        // Rates of a running export restart from now, those of a finished one are cleared
+        runDocuments.set(0);
+        runBytes.set(0);
+        runFinishedAt = 0;
+        runStartedAt = activeExports > 0 ? System.currentTimeMillis() : 0;
+    }
+
+    /**
+     * Build the template model of the metrics.
+     */
+    public Map<String, Object> toModel() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("exportsStarted", getExportsStarted());
+        model.put("activeExports", getActiveExports());
+        model.put("documentsExtracted", getDocumentsExtracted());
+        model.put("documentsSkipped", getDocumentsSkipped());
+        model.put("bytesCopied", getBytesCopied());
+        model.put("docsPerSecond", getDocsPerSecond());
+        model.put("megabytesPerSecond", getMegabytesPerSecond());
+        model.put("copyMegabytesPerSecondPerThread", getCopyMegabytesPerSecondPerThread());
+        List<Map<String, Object>> phaseModels = new ArrayList<>();
+        for (PhaseStatistics phase : getPhases()) {
+            Map<String, Object> phaseModel = new HashMap<>();
+            phaseModel.put("name", phase.getName());
+            phaseModel.put("count", phase.getCount());
+            phaseModel.put("totalMillis", phase.getTotalMillis());
+            phaseModel.put("meanMillis", phase.getMeanMillis());
+            phaseModel.put("p50Millis", phase.getP50Millis());
+            phaseModel.put("p95Millis", phase.getP95Millis());
+            phaseModel.put("p99Millis", phase.getP99Millis());
+            phaseModel.put("maxMillis", phase.getMaxMillis());
+            phaseModels.add(phaseModel);
+        }
+        model.put("phases", phaseModels);
+        return model;
+    }
+
+    // Spring setters for dependency injection
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+}
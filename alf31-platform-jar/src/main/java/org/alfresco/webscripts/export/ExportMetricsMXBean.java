@@ -0,0 +1,47 @@
+package org.alfresco.webscripts.export;
+
+import java.util.List;
+
+/**
+ * JMX view of the export metrics.
+ */
+public interface ExportMetricsMXBean {
+
+    long getExportsStarted();
+
+    /**
+     * Exports currently running.
+     */
+    int getActiveExports();
+
+    long getDocumentsExtracted();
+
+    long getDocumentsSkipped();
+
+    long getBytesCopied();
+
+    /**
+     * Documents per second of the running export, or of the last one once it has finished.
+     */
+    double getDocsPerSecond();
+
+    /**
+     * Megabytes per second of the running export, or of the last one once it has finished.
+     */
+    double getMegabytesPerSecond();
+
+    /**
+     * Megabytes per second of one worker while it copies, i.e. bytes copied over the time summed across the copying
+     * threads. It measures the content store and target disk as seen by one copy; with several workers the overall
+     * throughput is higher, see {@link #getMegabytesPerSecond()}.
+     */
+    double getCopyMegabytesPerSecondPerThread();
+
+    List<PhaseStatistics> getPhases();
+
+    /**
+     * Clear the counters, the phase histograms and the rates; the rates of a running export restart from now.
+     * The number of active exports is kept.
+     */
+    void reset();
+}
@@ -0,0 +1,27 @@
+package org.alfresco.webscripts.export;
+
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WebScript returning the export counters, throughput and per-phase latencies.
+ */
+public class ExportMetricsWebScript extends DeclarativeWebScript {
+    private ExportMetrics exportMetrics;
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+        Map<String, Object> model = new HashMap<>();
+        model.put("metrics", exportMetrics.toModel());
+        return model;
+    }
+
+    public void setExportMetrics(ExportMetrics exportMetrics) {
+        this.exportMetrics = exportMetrics;
+    }
+}
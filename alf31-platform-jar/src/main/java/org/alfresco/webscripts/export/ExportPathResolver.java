@@ -0,0 +1,91 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the folder path of repository nodes, e.g. {@code Company Home/Sites/site/documentLibrary/folder},
+ * from the names of their primary ancestors.
+ * Paths are cached per folder in an LRU cache, and a folder's path is built from its parent's cached path,
+ * so the documents of a folder and its subfolders only walk the part of the ancestor chain not seen yet.
+ * Lives for one export only, so renamed folders are picked up by the next one.
+ */
+public class ExportPathResolver {
+
+    private final NodeService nodeService;
+    private final Map<NodeRef, String> paths;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param cacheSize maximum number of folder paths kept
+     */
+    public ExportPathResolver(NodeService nodeService, final int cacheSize) {
+        this.nodeService = nodeService;
+        this.paths = new LinkedHashMap<NodeRef, String>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NodeRef, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Path of the folder holding a node, without leading or trailing slash; empty for a node of the store root.
+     */
+    public String getParentPath(NodeRef nodeRef) {
+        ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(nodeRef);
+        if (parentAssoc == null || parentAssoc.getParentRef() == null) {
+            return "";
+        }
+        return getPath(parentAssoc.getParentRef());
+    }
+
+    /**
+     * Path of a folder, without leading or trailing slash; empty for the store root.
+     */
+    public String getPath(NodeRef folderRef) {
+        synchronized (paths) {
+            String path = paths.get(folderRef);
+            if (path != null) {
+                hits++;
+                return path;
+            }
+            misses++;
+        }
+
+        // Resolved outside the lock: concurrent workers may resolve the same folder, with the same result
+        String name = (String) nodeService.getProperty(folderRef, ContentModel.PROP_NAME);
+        String path;
+        if (name == null) {
+            // Store root
+            path = "";
+        } else {
+            String parentPath = getParentPath(folderRef);
+            path = parentPath.isEmpty() ? name : parentPath + "/" + name;
+        }
+
+        synchronized (paths) {
+            paths.put(folderRef, path);
+        }
+        return path;
+    }
+
+    public long getHits() {
+        synchronized (paths) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (paths) {
+            return misses;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sizing of an export before it is run: how many documents match, of which mimetypes, and how many bytes
+ * they take. The count and mimetype facets come from one count-only query on the index; sizes are summed from
+ * the {@code cm:content} metadata of the matching nodes, no content is ever read. Only the documents the export
+ * would write are looked at, and no more than {@code maxScan}: the size of the rest is extrapolated from their average.
+ * Nodes without content are skipped by the export, so they are not planned either; beyond the scan, their share
+ * of the scanned nodes is taken out of the match count.
+ */
+public class ExportPlan {
+
+    private final NodeService nodeService;
+    private final int maxDocs;
+    private final int maxScan;
+
+    private long matchCount = -1;
+    private Map<String, Long> mimetypes = new HashMap<>();
+    private boolean indexFacets;
+
+    private int scannedCount;
+    private int contentCount;
+    private long scannedBytes;
+    private boolean scanComplete;
+
+    // Estimates, filled in by the caller
+    private long etaSeconds = -1;
+    private long freeBytes = -1;
+
+    /**
+     * @param maxDocs documents the export would stop at
+     * @param maxScan documents whose metadata is read at most
+     */
+    public ExportPlan(NodeService nodeService, int maxDocs, int maxScan) {
+        this.nodeService = nodeService;
+        this.maxDocs = maxDocs;
+        this.maxScan = maxScan;
+    }
+
+    /**
+     * Use the result of the count-only query.
+     *
+     * @param mimetypeFacets document count per mimetype, empty when the query was not answered by the index
+     */
+    public void setMatchCount(long matchCount, Map<String, Long> mimetypeFacets) {
+        this.matchCount = matchCount;
+        if (!mimetypeFacets.isEmpty()) {
+            this.mimetypes = new HashMap<>(mimetypeFacets);
+            this.indexFacets = true;
+        }
+    }
+
+    /**
+     * Add the content sizes of one search batch, in search order. The batch is only added once completely read,
+     * so that a batch retried by its transaction is never counted twice.
+     *
+     * @return false once enough documents were scanned
+     */
+    public boolean scan(List<NodeRef> nodeRefs) {
+        int scanned = 0;
+        int withContent = 0;
+        long bytes = 0;
+        Map<String, Long> batchMimetypes = new HashMap<>();
+        for (NodeRef nodeRef : nodeRefs) {
+            if (scannedCount + scanned >= maxScan || contentCount + withContent >= maxDocs) {
+                break;
+            }
+            if (!nodeService.exists(nodeRef)) {
+                continue;
+            }
+            ContentData content = (ContentData) nodeService.getProperty(nodeRef, ContentModel.PROP_CONTENT);
+            scanned++;
+            if (content != null && content.getContentUrl() != null) {
+                withContent++;
+                bytes += content.getSize();
+                if (!indexFacets) {
+                    String mimetype = content.getMimetype() != null ? content.getMimetype() : "";
+                    Long count = batchMimetypes.get(mimetype);
+                    batchMimetypes.put(mimetype, count != null ? count + 1 : 1L);
+                }
+            }
+        }
+
+        scannedCount += scanned;
+        contentCount += withContent;
+        scannedBytes += bytes;
+        for (Map.Entry<String, Long> entry : batchMimetypes.entrySet()) {
+            Long count = mimetypes.get(entry.getKey());
+            mimetypes.put(entry.getKey(), count != null ? count + entry.getValue() : entry.getValue());
+        }
+        return scannedCount < maxScan && contentCount < maxDocs;
+    }
+
+    /**
+     * The search ran out of documents before {@code maxScan}: counts and sizes are exact.
+     */
+    public void scanCompleted() {
+        this.scanComplete = true;
+    }
+
+    /**
+     * Documents matching the query. The scan is authoritative when it saw the whole match set,
+     * as the index may lag behind the database.
+     */
+    public long getMatchCount() {
+        return scanComplete || matchCount < scannedCount ? scannedCount : matchCount;
+    }
+
+    /**
+     * Documents with content the export would write, at most {@code maxDocs}.
+     */
+    public long getPlannedCount() {
+        if (contentCount >= maxDocs) {
+            return maxDocs;
+        }
+        if (scanComplete) {
+            return contentCount;
+        }
+        long withContent = scannedCount > 0
+            ? Math.round((double) getMatchCount() * contentCount / scannedCount) : getMatchCount();
+        return Math.min(Math.max(withContent, contentCount), maxDocs);
+    }
+
+    public long getAverageSize() {
+        return contentCount > 0 ? scannedBytes / contentCount : 0;
+    }
+
+    /**
+     * Bytes the export would write: exact when every planned document was scanned, otherwise extrapolated.
+     */
+    public long getEstimatedBytes() {
+        return scannedBytes + getAverageSize() * Math.max(0, getPlannedCount() - contentCount);
+    }
+
+    public boolean isEstimateExact() {
+        return getPlannedCount() <= contentCount;
+    }
+
+    public int getScannedCount() {
+        return scannedCount;
+    }
+
+    /**
+     * Scanned nodes without content, which the export would skip.
+     */
+    public int getContentlessCount() {
+        return scannedCount - contentCount;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    /**
+     * Usable bytes on the volume of the export base path, -1 if unknown.
+     */
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public void setFreeBytes(long freeBytes) {
+        this.freeBytes = freeBytes;
+    }
+
+    /**
+     * Build the template model of the plan, mimetypes by decreasing count.
+     */
+    public Map<String, Object> toModel() {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(mimetypes.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        List<Map<String, Object>> facets = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : sorted) {
+            Map<String, Object> facet = new LinkedHashMap<>();
+            facet.put("mimetype", entry.getKey());
+            facet.put("count", entry.getValue());
+            facets.add(facet);
+        }
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("matchCount", getMatchCount());
+        model.put("plannedCount", getPlannedCount());
+        model.put("maxDocs", maxDocs);
+        model.put("estimatedBytes", getEstimatedBytes());
+        model.put("averageSize", getAverageSize());
+        model.put("estimateExact", isEstimateExact());
+        model.put("scannedCount", scannedCount);
+        model.put("contentlessCount", getContentlessCount());
+        model.put("mimetypes", facets);
+        model.put("mimetypesSampled", !indexFacets && !scanComplete);
+        model.put("etaSeconds", etaSeconds);
+        model.put("freeBytes", freeBytes);
+        model.put("fitsOnVolume", freeBytes < 0 || getEstimatedBytes() <= freeBytes);
+        return model;
+    }
+}
@@ -0,0 +1,320 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.util.ISO8601DateFormat;
+import org.alfresco.util.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batched search over the documents matched by an export's keywords and mimetype.
+ * In keyset mode each batch asks for documents whose {@code sys:node-dbid} is greater than the last one seen,
+ * so deep pages cost the same as the first one and concurrent writes cannot shift results between pages.
+ */
+public class ExportSearch {
+    private static final Log logger = LogFactory.getLog(ExportSearch.class);
+
+    public static final String PAGINATION_KEYSET = "keyset";
+    public static final String PAGINATION_OFFSET = "offset";
+    private static final String DBID_FIELD = "@{http://www.alfresco.org/model/system/1.0}node-dbid";
+    private static final String MIMETYPE_FIELD = "@{http://www.alfresco.org/model/content/1.0}content.mimetype";
+
+    private final SearchService searchService;
+    private final NodeService nodeService;
+    private final String query;
+    private final int batchSize;
+    private final boolean keyset;
+
+    // Range of sys:node-dbid searched, bounds included; the whole repository by default
+    private long minDbId = -1;
+    private long maxDbId = Long.MAX_VALUE;
+    private QueryConsistency consistency = QueryConsistency.TRANSACTIONAL_IF_POSSIBLE;
+
+    private int skipCount;
+    private long cursor = -1;
+    private int batch;
+    private boolean exhausted;
+
+    public ExportSearch(SearchService searchService, NodeService nodeService,
+                        String keywords, String mimetype, int batchSize, String paginationMode) {
+        this(searchService, nodeService, keywords, mimetype, null, batchSize, paginationMode);
+    }
+
+    /**
+     * @param modifiedSince only match documents created or modified at or after this date, null for all
+     */
+    public ExportSearch(SearchService searchService, NodeService nodeService,
+                        String keywords, String mimetype, Date modifiedSince, int batchSize, String paginationMode) {
+        this.searchService = searchService;
+        this.nodeService = nodeService;
+        this.query = buildSearchQuery(keywords, mimetype, modifiedSince);
+        this.batchSize = batchSize;
+        this.keyset = !PAGINATION_OFFSET.equals(paginationMode);
+    }
+
+    /**
+     * Consistency of the batch and bound queries: {@link QueryConsistency#TRANSACTIONAL_IF_POSSIBLE} answers from the
+     * database when the query allows it, {@link QueryConsistency#EVENTUAL} always from the index, which is faster
+     * for bulk exports but may miss the latest changes.
+     */
+    public void setConsistency(QueryConsistency consistency) {
+        this.consistency = consistency;
+    }
+
+    public QueryConsistency getConsistency() {
+        return consistency;
+    }
+
+    /**
+     * Build FTS-Alfresco search query based on keywords, mimetype and, for incremental exports,
+     * the modification watermark.
+     * Uses hybrid approach: FTS query for performance + Java filter for reliability.
+     */
+    public static String buildSearchQuery(String keywords, String mimetype, Date modifiedSince) {
+        StringBuilder query = new StringBuilder();
+
+        // Base: search only for content nodes (not folders)
+        query.append("TYPE:\"cm:content\"");
+
+        // Add keyword search if present
+        if (keywords != null && !keywords.trim().isEmpty()) {
+            String cleanKeywords = keywords.replace("\"", "\\\"");
+
+            query.append(" AND (");
+
+            // Search in multiple fields
+            query.append("cm:name:\"").append(cleanKeywords).append("*\"");
+            query.append(" OR cm:title:\"").append(cleanKeywords).append("*\"");
+            query.append(" OR cm:description:\"").append(cleanKeywords).append("*\"");
+
+            query.append(")");
+        }
+
+        // Add mimetype filter if present
+        if (mimetype != null && !mimetype.trim().isEmpty()) {
+            // Use full namespace URI for reliable mimetype filtering
+            // Format: @{namespace}property:value
+            // Note: No escaping needed - FTS-Alfresco accepts {} and : in namespace URIs
+            query.append(" AND @{http://www.alfresco.org/model/content/1.0}content.mimetype:\"")
+                 .append(mimetype)
+                 .append("\"");
+        }
+
+        // Add modification range for incremental exports
+        if (modifiedSince != null) {
+            query.append(" AND @{http://www.alfresco.org/model/content/1.0}modified:[\"")
+                 .append(ISO8601DateFormat.format(modifiedSince))
+                 .append("\" TO MAX]");
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Run the next search batch.
+     *
+     * @return the matching nodes, empty once the result set is exhausted
+     */
+    public List<NodeRef> nextBatch() {
+        if (exhausted) {
+            return Collections.emptyList();
+        }
+        batch++;
+
+        // Setup search parameters
+        SearchParameters searchParams = new SearchParameters();
+        searchParams.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        searchParams.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        searchParams.setQueryConsistency(consistency);
+        searchParams.setMaxItems(batchSize);
+        if (keyset) {
+            searchParams.setQuery(getRangeQuery(Math.max(cursor + 1, minDbId)));
+            searchParams.addSort(DBID_FIELD, true);
+        } else {
+            searchParams.setQuery(getRangeQuery(minDbId));
+            searchParams.setSkipCount(skipCount);
+        }
+
+        ResultSet results = null;
+        try {
+            // Execute search
+            results = searchService.query(searchParams);
+            List<NodeRef> nodeRefs = new ArrayList<>(results.getNodeRefs());
+
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Batch %d: found %d results (skip=%d, cursor=%d)",
+                    batch, nodeRefs.size(), skipCount, cursor));
+            }
+
+            // No more results
+            if (nodeRefs.isEmpty()) {
+                exhausted = true;
+                return nodeRefs;
+            }
+
+            // Position only moves once nothing can fail, a batch retried by its transaction reads the same page
+            long nextCursor = keyset ? getLastDbId(nodeRefs) : -1;
+            if (keyset) {
+                // Not the end of the match set: stopping here would end the export early without any error
+                if (nextCursor <= cursor) {
+                    throw new IllegalStateException("Cursor did not advance past " + cursor + " in batch " + batch
+                        + " of " + nodeRefs.size() + " nodes, none of which could be located");
+                }
+                cursor = nextCursor;
+            }
+            skipCount += keyset ? nodeRefs.size() : batchSize;
+            return nodeRefs;
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+    }
+
+    /**
+     * The query restricted to database ids from the given one up to {@link #maxDbId}.
+     */
+    private String getRangeQuery(long fromDbId) {
+        if (fromDbId <= 0 && maxDbId == Long.MAX_VALUE) {
+            return query;
+        }
+        return query + " AND " + DBID_FIELD + ":[" + Math.max(fromDbId, 0) + " TO "
+            + (maxDbId == Long.MAX_VALUE ? "MAX" : String.valueOf(maxDbId)) + "]";
+    }
+
+    /**
+     * Lowest or highest {@code sys:node-dbid} of the match set within the searched range.
+     *
+     * @return the database id, -1 if nothing matches
+     */
+    public long findDbIdBound(boolean lowest) {
+        SearchParameters searchParams = new SearchParameters();
+        searchParams.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        searchParams.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        searchParams.setQueryConsistency(consistency);
+        searchParams.setQuery(getRangeQuery(minDbId));
+        searchParams.addSort(DBID_FIELD, lowest);
+        searchParams.setMaxItems(1);
+
+        ResultSet results = null;
+        try {
+            results = searchService.query(searchParams);
+            return getLastDbId(results.getNodeRefs());
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+    }
+
+    /**
+     * Count the match set without fetching any node, along with the number of documents per mimetype.
+     * Runs on the index, as the database query engine neither counts beyond the page nor computes facets.
+     *
+     * @param mimetypeFacets filled with the document count per mimetype, left empty when the index returns no facets
+     * @return the number of matching documents
+     */
+    public long count(Map<String, Long> mimetypeFacets) {
+        SearchParameters searchParams = new SearchParameters();
+        searchParams.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        searchParams.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        searchParams.setQueryConsistency(QueryConsistency.EVENTUAL);
+        searchParams.setQuery(getRangeQuery(minDbId));
+        searchParams.setMaxItems(0);
+        SearchParameters.FieldFacet facet = new SearchParameters.FieldFacet(MIMETYPE_FIELD);
+        facet.setMinCount(1);
+        facet.setLimitOrNull(100);
+        searchParams.addFieldFacet(facet);
+
+        ResultSet results = null;
+        try {
+            results = searchService.query(searchParams);
+            List<Pair<String, Integer>> buckets = results.getFieldFacet(MIMETYPE_FIELD);
+            if (buckets != null) {
+                for (Pair<String, Integer> bucket : buckets) {
+                    mimetypeFacets.put(bucket.getFirst(), bucket.getSecond().longValue());
+                }
+            }
+            return results.getNumberFound();
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+    }
+
+    /**
+     * Highest {@code sys:node-dbid} of a batch sorted by that key. The status of a node still holds its id
+     * once the node is deleted, so a page of nodes all deleted since the search still moves the cursor;
+     * only nodes already purged are skipped.
+     *
+     * @return the database id, -1 if no node of the batch can be located
+     */
+    private long getLastDbId(List<NodeRef> nodeRefs) {
+        for (int i = nodeRefs.size() - 1; i >= 0; i--) {
+            NodeRef.Status status = nodeService.getNodeStatus(nodeRefs.get(i));
+            if (status != null && status.getDbId() != null) {
+                return status.getDbId();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Continue from a position saved by a previous run.
+     */
+    public void resumeFrom(long cursor, int skipCount) {
+        this.cursor = cursor;
+        this.skipCount = skipCount;
+    }
+
+    /**
+     * Only search documents whose {@code sys:node-dbid} is within the given bounds, both included.
+     */
+    public void setDbIdRange(long minDbId, long maxDbId) {
+        this.minDbId = minDbId;
+        this.maxDbId = maxDbId;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isKeyset() {
+        return keyset;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Number of the last batch run, starting at 1.
+     */
+    public int getBatch() {
+        return batch;
+    }
+
+    public int getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * Last {@code sys:node-dbid} seen by keyset pagination, -1 before the first batch.
+     */
+    public long getCursor() {
+        return cursor;
+    }
+}
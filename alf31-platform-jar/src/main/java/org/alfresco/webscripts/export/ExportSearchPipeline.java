@@ -0,0 +1,153 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the search batches of one export ahead of their extraction, so that the next query page and its metadata
+ * are fetched while the current batch is being written. At most {@code depth} batches are fetched ahead, counting
+ * the one being fetched: a permit is taken before each fetch and given back when the batch is taken, so that besides
+ * the batch being written no more than {@code depth} batches are held in memory. With a depth of 0 every batch is
+ * fetched on the caller's thread when it is taken, as without the pipeline.
+ * Each batch carries the search position after it, which is what the checkpoint may record once it is extracted.
+ */
+public class ExportSearchPipeline {
+
+    /**
+     * One fetched search batch, empty once the match set is exhausted.
+     */
+    public static class Batch {
+        private final List<NodeRef> nodeRefs;
+        private final long cursor;
+        private final int skipCount;
+        private final Exception failure;
+
+        public Batch(List<NodeRef> nodeRefs, long cursor, int skipCount) {
+            this(nodeRefs, cursor, skipCount, null);
+        }
+
+        private Batch(List<NodeRef> nodeRefs, long cursor, int skipCount, Exception failure) {
+            this.nodeRefs = nodeRefs;
+            this.cursor = cursor;
+            this.skipCount = skipCount;
+            this.failure = failure;
+        }
+
+        public List<NodeRef> getNodeRefs() {
+            return nodeRefs;
+        }
+
+        public long getCursor() {
+            return cursor;
+        }
+
+        public int getSkipCount() {
+            return skipCount;
+        }
+    }
+
+    private final Callable<Batch> fetcher;
+    private final BlockingQueue<Batch> queue;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    /**
+     * @param fetcher runs and prefetches the next search batch, in its own transactions
+     * @param depth   batches fetched ahead at most, 0 for none
+     */
+    public ExportSearchPipeline(Callable<Batch> fetcher, int depth, final String threadName) {
+        this.fetcher = fetcher;
+        if (depth <= 0) {
+            this.queue = null;
+            this.permits = null;
+            this.executor = null;
+            return;
+        }
+
+        // Bounded by the permits
+        this.queue = new LinkedBlockingQueue<>();
+        this.permits = new Semaphore(depth);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                fetchAhead();
+            }
+        });
+    }
+
+    /**
+     * Fetch batches until the match set is exhausted, a search fails or the pipeline is closed.
+     */
+    private void fetchAhead() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                permits.acquire();
+                Batch batch;
+                try {
+                    batch = fetcher.call();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    queue.put(new Batch(null, -1, 0, e));
+                    return;
+                }
+                queue.put(batch);
+                if (batch.getNodeRefs().isEmpty()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for a permit
+        }
+    }
+
+    /**
+     * The next batch, waiting for it to be fetched if it is not ready yet.
+     *
+     * @throws ExecutionException if the search of the batch failed
+     */
+    public Batch take() throws InterruptedException, ExecutionException {
+        if (executor == null) {
+            try {
+                return fetcher.call();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ExecutionException(e.getMessage(), e);
+            }
+        }
+        Batch batch = queue.take();
+        permits.release();
+        if (batch.failure != null) {
+            throw new ExecutionException(batch.failure.getMessage(), batch.failure);
+        }
+        return batch;
+    }
+
+    /**
+     * Stop fetching ahead; the batches already fetched are dropped.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            queue.clear();
+        }
+    }
+}
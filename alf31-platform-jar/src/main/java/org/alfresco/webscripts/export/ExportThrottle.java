@@ -0,0 +1,192 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the load all running exports put on the repository, so that exports can run alongside interactive users.
+ * Fixed limits on bytes copied, documents extracted and searches run per second are enforced with token buckets;
+ * a limit of 0 disables it.
+ * <p>
+ * In adaptive mode the latency of searches and content reads is tracked as a moving average. When either rises
+ * above its threshold, the share of the configured rates allowed is halved (down to {@code minRateFactor}),
+ * and it grows back by a tenth per interval once latencies are under their thresholds again.
+ * Operations without a fixed limit are slowed by the same share, by pausing in proportion to their latency.
+ */
+public class ExportThrottle {
+    private static final Log logger = LogFactory.getLog(ExportThrottle.class);
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final double RATE_RECOVERY_STEP = 0.1;
+    private static final long MAX_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private TokenBucket bytes;
+    private TokenBucket documents;
+    private TokenBucket searches;
+
+    // Adaptive state, updated under the lock of this throttle
+    private volatile double searchLatency;
+    private volatile double readLatency;
+    private volatile double rateFactor = 1.0;
+    private long lastAdjustment;
+    private TokenBucket.Clock clock = TokenBucket.SYSTEM_CLOCK;
+
+    // Configuration
+    private long bytesPerSecond;
+    private double documentsPerSecond;
+    private double searchesPerSecond;
+    private boolean adaptive;
+    private long searchLatencyThreshold = 2000;
+    private long readLatencyThreshold = 500;
+    private double minRateFactor = 0.1;
+    private long adjustInterval = 1000;
+
+    public void init() {
+        bytes = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, clock) : null;
+        documents = documentsPerSecond > 0 ? new TokenBucket(documentsPerSecond, clock) : null;
+        searches = searchesPerSecond > 0 ? new TokenBucket(searchesPerSecond, clock) : null;
+        lastAdjustment = clock.nanoTime();
+        if (bytes != null || documents != null || searches != null || adaptive) {
+            logger.info(String.format("Export throttling: bytes/s=%d, docs/s=%s, searches/s=%s, adaptive=%s",
+                bytesPerSecond, documentsPerSecond, searchesPerSecond, adaptive));
+        }
+    }
+
+    /**
+     * Wait for the right to extract one more document.
+     *
+     * @return the time waited, in nanoseconds
+     */
+    public long acquireDocument() throws InterruptedException {
+        return acquire(documents, 1, readLatency);
+    }
+
+    /**
+     * Wait for the right to copy the given number of bytes.
+     *
+     * @return the time waited, in nanoseconds
+     */
+    public long acquireBytes(long count) throws InterruptedException {
+        if (bytes == null || count <= 0) {
+            return 0;
+        }
+        return bytes.acquire(count, rateFactor);
+    }
+
+    /**
+     * Wait for the right to run one more search.
+     *
+     * @return the time waited, in nanoseconds
+     */
+    public long acquireSearch() throws InterruptedException {
+        return acquire(searches, 1, searchLatency);
+    }
+
+    private long acquire(TokenBucket bucket, long permits, double latency) throws InterruptedException {
+        if (bucket != null) {
+            return bucket.acquire(permits, rateFactor);
+        }
+        double factor = rateFactor;
+        if (factor >= 1.0) {
+            return 0;
+        }
+        // Keep the operation busy for only the allowed share of the time
+        long pause = Math.min(MAX_PAUSE_NANOS, (long) (latency * (1.0 - factor) / factor));
+        if (pause > 0) {
+            clock.sleep(pause);
+        }
+        return pause;
+    }
+
+    public void recordSearchLatency(long nanos) {
+        if (adaptive) {
+            synchronized (this) {
+                searchLatency = smooth(searchLatency, nanos);
+                adjust();
+            }
+        }
+    }
+
+    public void recordReadLatency(long nanos) {
+        if (adaptive) {
+            synchronized (this) {
+                readLatency = smooth(readLatency, nanos);
+                adjust();
+            }
+        }
+    }
+
+    private static double smooth(double average, long sample) {
+        return average == 0 ? sample : average + LATENCY_SMOOTHING * (sample - average);
+    }
+
+    /**
+     * Back off multiplicatively while the repository is slow, recover additively once it is not.
+     */
+    private void adjust() {
+        long now = clock.nanoTime();
+        if (now - lastAdjustment < TimeUnit.MILLISECONDS.toNanos(adjustInterval)) {
+            return;
+        }
+        lastAdjustment = now;
+
+        double factor = rateFactor;
+        boolean slow = searchLatency > TimeUnit.MILLISECONDS.toNanos(searchLatencyThreshold)
+            || readLatency > TimeUnit.MILLISECONDS.toNanos(readLatencyThreshold);
+        if (slow) {
+            rateFactor = Math.max(minRateFactor, factor / 2);
+        } else {
+            rateFactor = Math.min(1.0, factor + RATE_RECOVERY_STEP);
+        }
+        if (rateFactor != factor && logger.isDebugEnabled()) {
+            logger.debug(String.format("Export rate factor %.2f -> %.2f (search %.0f ms, read %.0f ms)",
+                factor, rateFactor, searchLatency / 1e6, readLatency / 1e6));
+        }
+    }
+
+    /**
+     * Share of the configured rates currently allowed, 1 unless the adaptive mode backed off.
+     */
+    public double getRateFactor() {
+        return rateFactor;
+    }
+
+    // Spring setters for dependency injection
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void setDocumentsPerSecond(double documentsPerSecond) {
+        this.documentsPerSecond = documentsPerSecond;
+    }
+
+    public void setSearchesPerSecond(double searchesPerSecond) {
+        this.searchesPerSecond = searchesPerSecond;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public void setSearchLatencyThreshold(long searchLatencyThreshold) {
+        this.searchLatencyThreshold = searchLatencyThreshold;
+    }
+
+    public void setReadLatencyThreshold(long readLatencyThreshold) {
+        this.readLatencyThreshold = readLatencyThreshold;
+    }
+
+    public void setMinRateFactor(double minRateFactor) {
+        this.minRateFactor = minRateFactor;
+    }
+
+    public void setAdjustInterval(long adjustInterval) {
+        this.adjustInterval = adjustInterval;
+    }
+
+    void setClock(TokenBucket.Clock clock) {
+        this.clock = clock;
+    }
+}
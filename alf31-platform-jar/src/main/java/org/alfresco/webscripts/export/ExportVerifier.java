@@ -0,0 +1,187 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-checks the files of an export directory against its {@value ExportChecksums#MANIFEST_FILE}:
+ * every listed file must exist with the recorded size and, when the manifest has one, the recorded SHA-256 digest.
+ * Files are hashed in parallel on a pool sized for the CPU, as hashing rather than reading dominates on fast disks.
+ * Problems are listed in {@value #REPORT_FILE}, one file per line with the reason.
+ */
+public class ExportVerifier {
+    private static final Log logger = LogFactory.getLog(ExportVerifier.class);
+
+    public static final String REPORT_FILE = "_verify.tsv";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path exportDir;
+    private final int threads;
+
+    private int verifiedCount;
+    private int failedCount;
+
+    /**
+     * @param threads hashing threads, 0 for one per available processor
+     */
+    public ExportVerifier(Path exportDir, int threads) {
+        this.exportDir = exportDir;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Verify every file of the manifest, reporting progress to the job and stopping when it is cancelled.
+     */
+    public void verify(final ExportJob job) throws IOException, InterruptedException {
+        Path manifest = exportDir.resolve(ExportChecksums.MANIFEST_FILE);
+        if (!Files.isRegularFile(manifest)) {
+            throw new IOException("No checksum manifest found in " + exportDir);
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ExportVerify-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<String> results = new ExecutorCompletionService<>(executor);
+        BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+        Writer report = Files.newBufferedWriter(exportDir.resolve(REPORT_FILE), StandardCharsets.UTF_8);
+        try {
+            // Keep a few files per thread in flight, the manifest may list millions of them
+            int pending = 0;
+            String line;
+            while ((line = reader.readLine()) != null && !job.isCancelRequested()) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final JSONObject entry;
+                try {
+                    entry = new JSONObject(line);
+                } catch (JSONException e) {
+                    // Partially written by an interrupted export
+                    logger.warn("Skipping malformed manifest line in " + exportDir + ": " + e.getMessage());
+                    continue;
+                }
+
+                results.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return verifyEntry(entry, job);
+                    }
+                });
+                if (++pending >= threads * 4) {
+                    collect(results.take(), report);
+                    pending--;
+                }
+            }
+            for (; pending > 0; pending--) {
+                collect(results.take(), report);
+            }
+        } finally {
+            executor.shutdownNow();
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(report);
+        }
+    }
+
+    private void collect(Future<String> result, Writer report) throws IOException, InterruptedException {
+        String problem;
+        try {
+            problem = result.get();
+        } catch (ExecutionException e) {
+            problem = "?\terror: " + e.getCause().getMessage();
+        }
+        verifiedCount++;
+        if (problem != null) {
+            failedCount++;
+            report.write(problem);
+            report.write('\n');
+        }
+    }
+
+    /**
+     * @return null if the file matches its entry, otherwise the report line
+     */
+    private String verifyEntry(JSONObject entry, ExportJob job) throws JSONException, IOException {
+        String fileName = entry.getString(ExportChecksums.FIELD_FILE);
+        Path file = exportDir.resolve(fileName).normalize();
+        if (!file.startsWith(exportDir.normalize())) {
+            return fileName + "\toutside of the export directory";
+        }
+        if (!Files.isRegularFile(file)) {
+            return fileName + "\tmissing";
+        }
+
+        long expectedSize = entry.getLong(ExportChecksums.FIELD_SIZE);
+        long size = Files.size(file);
+        if (size != expectedSize) {
+            return fileName + "\tsize " + size + ", expected " + expectedSize;
+        }
+
+        String expectedDigest = entry.optString(ExportChecksums.FIELD_SHA256, null);
+        if (expectedDigest != null) {
+            String digest = digest(file);
+            if (!digest.equalsIgnoreCase(expectedDigest)) {
+                return fileName + "\tsha256 " + digest + ", expected " + expectedDigest;
+            }
+        }
+        job.documentExtracted(size);
+        return null;
+    }
+
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ExportChecksums.ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ExportChecksums.ALGORITHM + " is not available", e);
+        }
+        InputStream in = Files.newInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    public int getVerifiedCount() {
+        return verifiedCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+}
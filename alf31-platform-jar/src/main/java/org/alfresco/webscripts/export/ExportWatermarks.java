@@ -0,0 +1,42 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Per-query modification watermarks of incremental exports, kept in the repository attribute store.
+ * A watermark is the start time of the last run that exported the whole match set of a query.
+ */
+public class ExportWatermarks {
+    private static final String ATTR_KEY_EXPORT = ".alf31Export";
+    private static final String ATTR_KEY_WATERMARK = "watermark";
+
+    private AttributeService attributeService;
+
+    /**
+     * @return the watermark of the query, or null if it was never exported incrementally
+     */
+    public Date getWatermark(String keywords, String mimetype) {
+        Serializable value = attributeService.getAttribute(ATTR_KEY_EXPORT, ATTR_KEY_WATERMARK, getQueryKey(keywords, mimetype));
+        return value instanceof Long ? new Date((Long) value) : null;
+    }
+
+    public void setWatermark(String keywords, String mimetype, Date watermark) {
+        attributeService.setAttribute(watermark.getTime(), ATTR_KEY_EXPORT, ATTR_KEY_WATERMARK, getQueryKey(keywords, mimetype));
+    }
+
+    /**
+     * Attribute keys are length-limited, so queries are identified by a digest of their parameters.
+     */
+    private String getQueryKey(String keywords, String mimetype) {
+        return DigestUtils.sha1Hex((keywords != null ? keywords : "") + "\n" + (mimetype != null ? mimetype : ""));
+    }
+
+    // Spring setters for dependency injection
+    public void setAttributeService(AttributeService attributeService) {
+        this.attributeService = attributeService;
+    }
+}
@@ -2,7 +2,9 @@ package org.alfresco.webscripts.export;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.domain.node.NodeDAO;
 import org.alfresco.repo.model.Repository;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.service.cmr.repository.*;
 import org.alfresco.service.cmr.search.QueryConsistency;
@@ -11,26 +13,39 @@ import org.alfresco.service.cmr.search.SearchParameters;
 import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.util.ISO8601DateFormat;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.webscripts.Cache;
 import org.springframework.extensions.webscripts.DeclarativeWebScript;
 import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * WebScript for exporting documents from Alfresco repository based on keyword search and mimetype filtering.
@@ -38,11 +53,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class ExportWebScript extends DeclarativeWebScript {
     private static final Log logger = LogFactory.getLog(ExportWebScript.class);
     private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final String DELETIONS_FILE = "_deleted.tsv";
+    private static final String CHECKSUM_SHA256 = "sha256";
+    private static final String CHECKSUM_NONE = "none";
     private static final String LOG_FILE_PREFIX = "Export_";
     private static final String LOG_FILE_SUFFIX = ".log";
-    private static final String FTS_ALFRESCO = SearchService.LANGUAGE_FTS_ALFRESCO;
-
-    private final AtomicInteger docCount = new AtomicInteger(0);
 
     // Alfresco services
     private NodeService nodeService;
@@ -50,147 +65,592 @@ public class ExportWebScript extends DeclarativeWebScript {
     private ContentService contentService;
     private Repository repository;
     private RetryingTransactionHelper retryingTransactionHelper;
-
-    // Export parameters
+    private ExportJobService exportJobService;
+    private ExportWorkerPool exportWorkerPool;
+    private NodeDAO nodeDAO;
+    private ExportMetrics exportMetrics;
+    private ExportThrottle exportThrottle;
+    private ExportCluster exportCluster;
+    private ExportCompressor exportCompressor;
+
+    // Export configuration
     private String exportBasePath;
-    private String exportPath;
-    private int maxDocs;
-    private String keywords;
-    private String mimetype;
+
+    // Search paging
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private String paginationMode = ExportSearch.PAGINATION_KEYSET;
+    private String consistency = QueryConsistency.TRANSACTIONAL_IF_POSSIBLE.name();
+    private int prefetchDepth = 1;
 
     // Logging
-    private NodeRef logFileRef;
+    private int logSampleInterval = 100;
+
+    // Incremental exports
+    private ExportWatermarks exportWatermarks;
+
+    // Duplicate binaries
+    private String dedupMode = ExportDeduplication.MODE_LINK;
+
+    // Integrity manifest: 'sha256', 'size' or 'none', and the threads of the verify mode (0 = one per processor)
+    private String checksumMode = CHECKSUM_SHA256;
+    private int verifyThreads;
+
+    // Content copy to the export directory, zero-copy only applies without SHA-256 checksums
+    private ExportContentCopier contentCopier = new ExportContentCopier(false);
 
-    // Map for handling duplicate file names
-    private Map<String, Integer> fileNameCounters = new HashMap<>();
+    // Directory layout of the exported files: 'flat', 'mirror' or 'hashed', and the folder paths cached per export
+    private String layout = ExportLayout.LAYOUT_FLAT;
+    private int layoutFanout = 256;
+    private int layoutDepth = 2;
+    private int pathCacheSize = 10000;
+
+    // Compression of the exported files by default: 'none', 'gzip' (skipping already compressed types) or 'all'
+    private String compression = ExportCompressor.MODE_NONE;
+
+    // Dry runs: documents whose content metadata is read at most, the size of the others is extrapolated
+    private int planMaxScan = 100000;
+
+    // Incremental exports: seconds the index may lag behind the repository, taken back from the next watermark
+    private long incrementalIndexLag = 300;
+
+    /**
+     * Make this node run the shards of distributed exports with the export engine.
+     * Zero-copy and SHA-256 checksums exclude each other, a warning says which one wins.
+     */
+    public void init() {
+        if (contentCopier.isZeroCopy() && CHECKSUM_SHA256.equals(checksumMode)) {
+            logger.warn("export.extraction.zerocopy is ignored while export.checksums=sha256: "
+                + "the digest needs every byte, content is copied and hashed through a stream");
+        }
+        exportCluster.registerShardTask(new ExportJobService.ExportTask() {
+            @Override
+            public String execute(ExportJob job) throws Exception {
+                return doExecuteImpl(job);
+            }
+        });
+    }
+
+    /**
+     * Stream the export as an archive when {@code format=zip} or {@code format=tar} is requested,
+     * otherwise queue a background export job, or only estimate it for a dry run.
+     */
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String format = req.getParameter("format");
+        if (ExportArchive.isArchiveFormat(format) && !isPlanRequest(req)) {
+            ExportJob params = initializeParameters(req);
+            // A stream is not queued, but takes one of the execution slots of the export jobs while it runs
+            try {
+                exportJobService.acquireSlot();
+            } catch (RejectedExecutionException e) {
+                logger.warn("All export slots are busy, archive request rejected");
+                throw new WebScriptException(Status.STATUS_SERVICE_UNAVAILABLE, "Trop d'exports en cours, veuillez réessayer plus tard.");
+            }
+            try {
+                streamArchive(params, format, res);
+            } finally {
+                exportJobService.releaseSlot();
+            }
+        } else {
+            super.execute(req, res);
+        }
+    }
+
+    /**
+     * Whether the request only asks for the size of the export ({@code plan=true} or {@code dryRun=true}).
+     */
+    private boolean isPlanRequest(WebScriptRequest req) {
+        return Boolean.parseBoolean(req.getParameter("plan")) || Boolean.parseBoolean(req.getParameter("dryRun"));
+    }
 
     /**
      * Main entry point for the web script execution.
+     * Queues the export, or the dry run sizing it, as a background job and returns its ID immediately.
      */
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+        Map<String, Object> model = new HashMap<>();
         try {
-            return doExecuteImpl(req);
+            ExportJob params = initializeParameters(req);
+            ExportJob job;
+            if (isPlanRequest(req)) {
+                if (params.getVerifyFolder() != null) {
+                    throw new IllegalArgumentException("L'estimation ne s'applique pas à une vérification.");
+                }
+                // The scan reads up to planMaxScan nodes: it runs as a job, its result is polled with the job status
+                params.setDryRun(true);
+                job = exportJobService.submit(params, new ExportJobService.ExportTask() {
+                    @Override
+                    public String execute(ExportJob job) throws Exception {
+                        ExportPlan plan = planExport(job);
+                        job.setPlanModel(plan.toModel());
+                        return String.format("Estimation : %d documents, %s%s.", plan.getPlannedCount(),
+                            formatFileSize(plan.getEstimatedBytes()), plan.isEstimateExact() ? "" : " (extrapolé)");
+                    }
+                });
+            } else {
+                job = exportJobService.submit(params, new ExportJobService.ExportTask() {
+                    @Override
+                    public String execute(ExportJob job) throws Exception {
+                        return doExecuteImpl(job);
+                    }
+                });
+            }
+            model.putAll(job.toModel());
+            model.put("success", true);
+            model.put("message", job.isDryRun() ? "Estimation mise en file d'attente." : "Export mis en file d'attente.");
+        } catch (IllegalArgumentException e) {
+            status.setCode(Status.STATUS_BAD_REQUEST);
+            model.put("success", false);
+            model.put("message", e.getMessage());
+        } catch (RejectedExecutionException e) {
+            logger.warn("Export queue is full, request rejected");
+            status.setCode(Status.STATUS_SERVICE_UNAVAILABLE);
+            model.put("success", false);
+            model.put("message", "Trop d'exports en attente, veuillez réessayer plus tard.");
         } catch (Exception e) {
-            logToFileAndConsole("ERROR", "Error during export process: " + e.getMessage());
-            logger.error("Exception during export", e);
-            Map<String, Object> model = new HashMap<>();
+            logger.error("Exception during export submission", e);
             model.put("success", false);
             model.put("message", "Error during export process: " + e.getMessage());
-            return model;
         }
+        return model;
     }
 
     /**
-     * Core implementation of the export logic (synchronous).
+     * Core implementation of the export logic, run on the export job executor.
+     * All the state of the export lives in its own context, so several jobs may run at once.
+     *
+     * @return the final job message
      */
-    private Map<String, Object> doExecuteImpl(WebScriptRequest req) {
-        // Initialize parameters from request
-        initializeParameters(req);
-
-        Map<String, Object> model = new HashMap<>();
-        long startTime = System.currentTimeMillis();
-        int extractedCount = 0;
-        String message = "";
-        boolean success = false;
+    private String doExecuteImpl(final ExportJob job) throws Exception {
+        final ExportContext ctx = new ExportContext(job);
+        exportMetrics.exportStarted();
 
         try {
-            // Wrap entire export in a transaction
-            final int[] extractedCountHolder = new int[1];
-
+            // No transaction spans the export: the log node is created and rewritten in small write transactions,
+            // each search batch is read in a short read-only one and each document in its worker's own,
+            // so that a retry only repeats one batch and no session cache grows with the export
             retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>() {
                 @Override
                 public Void execute() throws Throwable {
-                    // Initialize log file
-                    initLogFile();
-
-                    logToFileAndConsole("INFO", "========================================");
-                    logToFileAndConsole("INFO", "Starting export process");
-                    logToFileAndConsole("INFO", String.format("Parameters: maxDocs=%d, basePath=%s", maxDocs, exportBasePath));
-                    logToFileAndConsole("INFO", String.format("Keywords: '%s'", keywords != null && !keywords.isEmpty() ? keywords : "(none)"));
-                    logToFileAndConsole("INFO", String.format("Mimetype: %s", mimetype != null && !mimetype.isEmpty() ? mimetype : "(all)"));
-                    logToFileAndConsole("INFO", "========================================");
-
-                    // Validate export path
-                    validateExportPath();
-
-                    // Perform search and export
-                    extractedCountHolder[0] = performSearchAndExtract();
-
-                    // Build result
-                    String exitMessage = String.format("Export terminé avec succès. %d documents extraits.", extractedCountHolder[0]);
-                    logToFileAndConsole("INFO", exitMessage);
-                    logToFileAndConsole("INFO", "========================================");
-
+                    initLogFile(ctx);
                     return null;
                 }
             }, false, true);
 
-            extractedCount = extractedCountHolder[0];
-            message = String.format("Export terminé avec succès. %d documents extraits.", extractedCount);
-            success = true;
+            logToFileAndConsole(ctx, "INFO", "========================================");
+            logToFileAndConsole(ctx, "INFO", "Starting export process (job " + job.getId() + ")");
+            logToFileAndConsole(ctx, "INFO", String.format("Parameters: maxDocs=%d, basePath=%s", ctx.getMaxDocs(), exportBasePath));
+            logToFileAndConsole(ctx, "INFO", String.format("Keywords: '%s'", !ctx.getKeywords().isEmpty() ? ctx.getKeywords() : "(none)"));
+            logToFileAndConsole(ctx, "INFO", String.format("Mimetype: %s", !ctx.getMimetype().isEmpty() ? ctx.getMimetype() : "(all)"));
+            logToFileAndConsole(ctx, "INFO", "========================================");
+
+            // Validate export path
+            validateExportPath(ctx);
+            job.setExportPath(ctx.getExportPath());
+            if (job.getVerifyFolder() != null) {
+                String message = verifyExport(ctx);
+                logToFileAndConsole(ctx, "INFO", message);
+                return message;
+            }
+            if (job.isDistributed()) {
+                String message = publishDistributedExport(ctx);
+                logToFileAndConsole(ctx, "INFO", message);
+                return message;
+            }
+            int extractedCount = exportDocuments(ctx);
+            if (job.isIncremental() && !job.isCancelRequested()) {
+                completeIncrementalExport(ctx);
+            }
+
+            // Build result
+            String message = job.isCancelRequested()
+                ? String.format("Export annulé. %d documents extraits.", extractedCount)
+                : String.format("Export terminé avec succès. %d documents extraits.", extractedCount);
+            logToFileAndConsole(ctx, "INFO", message);
+            logToFileAndConsole(ctx, "INFO", "========================================");
+            return message;
 
         } catch (Exception e) {
-            message = "Erreur lors de l'export: " + e.getMessage();
-            logger.error("Export failed", e);
+            String message = "Erreur lors de l'export: " + e.getMessage();
 
             // Try to log error to file if possible
             try {
-                if (logFileRef != null) {
-                    logToFileAndConsole("ERROR", message);
+                if (ctx.getLogFileRef() != null) {
+                    logToFileAndConsole(ctx, "ERROR", message);
                 }
             } catch (Exception logError) {
                 logger.error("Failed to log error to file", logError);
             }
+            throw e;
 
         } finally {
             try {
-                closeLogFile();
+                closeLogFile(ctx);
             } catch (Exception e) {
                 logger.error("Error closing log file", e);
             }
+            ctx.close();
+            exportMetrics.exportFinished();
         }
+    }
 
-        // Calculate duration
-        long duration = (System.currentTimeMillis() - startTime) / 1000; // seconds
+    /**
+     * Stream the matching documents into a ZIP or TAR archive on the response.
+     * Runs on the request thread; nothing is written to the export base path and, as no content length
+     * is set, the response is sent with chunked transfer encoding. Each search batch and the metadata of its
+     * documents are read in read-only transactions, the entries are written after they have ended.
+     */
+    private void streamArchive(final ExportJob params, String format, WebScriptResponse res) throws IOException {
+        final ExportSearch search = new ExportSearch(searchService, nodeService,
+            params.getKeywords(), params.getMimetype(), batchSize, paginationMode);
+        search.setConsistency(QueryConsistency.valueOf(params.getConsistency()));
+        final UniqueFileNames archiveNames = new UniqueFileNames();
+        final ExportLayout archiveLayout = new ExportLayout(params.getLayout(), layoutFanout, layoutDepth,
+            new ExportPathResolver(nodeService, pathCacheSize));
+        String archiveName = LOG_FILE_PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "." + format;
+
+        res.setContentType(ExportArchive.FORMAT_TAR.equals(format) ? "application/x-tar" : "application/zip");
+        res.setHeader("Content-Disposition", "attachment; filename=\"" + archiveName + "\"");
+        final ExportArchive archive = new ExportArchive(format, res.getOutputStream());
+
+        logger.info(String.format("Streaming %s archive %s (maxDocs=%d, query=%s)", format, archiveName, params.getMaxDocs(), search.getQuery()));
+        long startTime = System.currentTimeMillis();
+        int archivedCount = 0;
+        long bytesWritten = 0;
+        exportMetrics.exportStarted();
+        try {
+            while (archivedCount < params.getMaxDocs()) {
+                // The response is written outside of any transaction: a retried transaction must not
+                // append its entries twice, nor skip a page of a search that has already moved on
+                List<NodeRef> nodeRefs = nextBatch(search);
+                if (nodeRefs.isEmpty()) {
+                    break;
+                }
+                List<ExportDocument> documents = readDocuments(nodeRefs, archiveLayout);
 
-        // Build model for template
-        model.put("success", success);
-        model.put("message", message);
-        model.put("extractedCount", extractedCount);
-        model.put("maxDocs", maxDocs);
-        model.put("keywords", keywords != null ? keywords : "");
-        model.put("mimetype", mimetype != null ? mimetype : "");
-        model.put("exportPath", exportPath != null ? exportPath : "");
-        model.put("duration", duration);
+                for (ExportDocument document : documents) {
+                    if (archivedCount >= params.getMaxDocs()) {
+                        break;
+                    }
+                    long written = addArchiveEntry(archive, archiveNames, document);
+                    if (written >= 0) {
+                        bytesWritten += written;
+                        exportMetrics.documentExtracted(written);
+                        archivedCount++;
+                    } else {
+                        exportMetrics.documentSkipped();
+                    }
+                }
+            }
 
-        return model;
+            archive.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archive " + archiveName + " interrupted after " + archivedCount + " documents");
+        } finally {
+            exportMetrics.exportFinished();
+        }
+        logger.info(String.format("Archive %s streamed: %d documents, %s in %d s", archiveName, archivedCount,
+            formatFileSize(bytesWritten), (System.currentTimeMillis() - startTime) / 1000));
+    }
+
+    /**
+     * Size an export without writing anything: count of the match set with its mimetypes from the index,
+     * bytes summed from the content metadata in read-only transactions, duration from the throughput of the
+     * previous exports and free space of the export volume. Run as a job, stopped early when it is cancelled.
+     */
+    private ExportPlan planExport(ExportJob job) throws InterruptedException {
+        Date modifiedSince = job.isIncremental() ? readWatermark(job) : null;
+        final ExportSearch search = new ExportSearch(searchService, nodeService, job.getKeywords(), job.getMimetype(),
+            modifiedSince, batchSize, ExportSearch.PAGINATION_KEYSET);
+        search.setConsistency(QueryConsistency.valueOf(job.getConsistency()));
+        final ExportPlan plan = new ExportPlan(nodeService, job.isDistributed() ? Integer.MAX_VALUE : job.getMaxDocs(), planMaxScan);
+        long startTime = System.currentTimeMillis();
+
+        try {
+            retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>() {
+                @Override
+                public Void execute() throws Throwable {
+                    Map<String, Long> mimetypeFacets = new HashMap<>();
+                    long count = search.count(mimetypeFacets);
+                    plan.setMatchCount(count, mimetypeFacets);
+                    return null;
+                }
+            }, true, false);
+        } catch (Exception e) {
+            // Without an index the scan below still counts the documents the export would write
+            logger.warn("Count query of the export plan failed, counting from the scan only: " + e.getMessage());
+        }
+
+        boolean scanning = true;
+        while (scanning && !job.isCancelRequested()) {
+            final List<NodeRef> nodeRefs = nextBatch(search);
+            if (nodeRefs.isEmpty()) {
+                plan.scanCompleted();
+                break;
+            }
+            scanning = retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Boolean>() {
+                @Override
+                public Boolean execute() throws Throwable {
+                    if (nodeDAO != null) {
+                        nodeDAO.cacheNodes(nodeRefs);
+                    }
+                    return plan.scan(nodeRefs);
+                }
+            }, true, false);
+        }
+
+        plan.setEtaSeconds(estimateDuration(plan.getPlannedCount(), plan.getEstimatedBytes()));
+        if (exportBasePath != null && !exportBasePath.trim().isEmpty()) {
+            try {
+                plan.setFreeBytes(Files.getFileStore(Paths.get(exportBasePath)).getUsableSpace());
+            } catch (IOException e) {
+                logger.warn("Cannot read the free space of " + exportBasePath + ": " + e.getMessage());
+            }
+        }
+
+        logger.info(String.format("Export plan (query=%s): %d matching, %d planned, %s, %d documents scanned in %d ms",
+            search.getQuery(), plan.getMatchCount(), plan.getPlannedCount(), formatFileSize(plan.getEstimatedBytes()),
+            plan.getScannedCount(), System.currentTimeMillis() - startTime));
+        return plan;
+    }
+
+    /**
+     * Estimated seconds to export the given documents, from the throughput of the completed exports still
+     * in the job history; the slower of the document rate and the byte rate wins.
+     *
+     * @return the estimate, -1 without history
+     */
+    private long estimateDuration(long documents, long bytes) {
+        long millis = 0;
+        long extracted = 0;
+        long written = 0;
+        for (ExportJob job : exportJobService.getJobs()) {
+            if (job.getState() == ExportJob.State.COMPLETED && job.getVerifyFolder() == null && job.getExtractedCount() > 0) {
+                millis += job.getFinishedAt() - job.getStartedAt();
+                extracted += job.getExtractedCount();
+                written += job.getBytesWritten();
+            }
+        }
+        if (extracted == 0 || millis <= 0) {
+            return -1;
+        }
+        double seconds = millis / 1000.0;
+        double byDocuments = documents * seconds / extracted;
+        double byBytes = written > 0 ? bytes * seconds / written : 0;
+        return (long) Math.max(byDocuments, byBytes);
     }
 
     /**
-     * Initialize export parameters from request.
+     * Read the documents of a search batch in one read-only transaction.
+     *
+     * @return the documents still in the repository, in the order of the batch
      */
-    private void initializeParameters(WebScriptRequest req) {
+    private List<ExportDocument> readDocuments(final List<NodeRef> nodeRefs, final ExportLayout layout) {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<List<ExportDocument>>() {
+            @Override
+            public List<ExportDocument> execute() throws Throwable {
+                List<ExportDocument> documents = new ArrayList<>(nodeRefs.size());
+                for (NodeRef nodeRef : nodeRefs) {
+                    ExportDocument document = readDocument(nodeRef, layout, null);
+                    if (document != null) {
+                        documents.add(document);
+                    }
+                }
+                return documents;
+            }
+        }, true, false);
+    }
+
+    /**
+     * Read the name, content reader and place in the layout of a document.
+     * Must run in a transaction; the content itself is only read when written.
+     *
+     * @param pathResolver resolver of the repository path of the document for the integrity manifest, null for none
+     * @return the document, null if the node no longer exists
+     */
+    private ExportDocument readDocument(NodeRef nodeRef, ExportLayout layout, ExportPathResolver pathResolver) {
+        if (!nodeService.exists(nodeRef)) {
+            return null;
+        }
+
+        String fileName = (String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME);
+        if (fileName == null) {
+            fileName = nodeRef.getId() + ".bin";
+        }
+
+        long start = System.nanoTime();
+        ContentReader reader = contentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
+        long elapsed = System.nanoTime() - start;
+        exportMetrics.record(ExportMetrics.PHASE_GET_READER, elapsed);
+        exportThrottle.recordReadLatency(elapsed);
+        if (reader != null && !reader.exists()) {
+            reader = null;
+        }
+
+        String path = null;
+        if (pathResolver != null) {
+            String parentPath = pathResolver.getParentPath(nodeRef);
+            path = "/" + (parentPath.isEmpty() ? fileName : parentPath + "/" + fileName);
+        }
+        Date modified = (Date) nodeService.getProperty(nodeRef, ContentModel.PROP_MODIFIED);
+        return new ExportDocument(nodeRef, fileName, reader, layout.getRelativePath(nodeRef, fileName), path, modified);
+    }
+
+    /**
+     * Append one document to the archive.
+     *
+     * @return the number of bytes written, -1 if the document has no content
+     */
+    private long addArchiveEntry(ExportArchive archive, UniqueFileNames archiveNames, ExportDocument document)
+            throws IOException, InterruptedException {
+        recordThrottleWait(exportThrottle.acquireDocument());
+        ContentReader reader = document.getReader();
+        if (reader == null) {
+            logger.warn("No content for: " + document.getName());
+            return -1;
+        }
+
+        long start = System.nanoTime();
+        String entryName = archiveNames.allocate(document.getRelativePath());
+        exportMetrics.record(ExportMetrics.PHASE_ALLOCATE, System.nanoTime() - start);
+
+        recordThrottleWait(exportThrottle.acquireBytes(reader.getSize()));
+        start = System.nanoTime();
+        long written = archive.addEntry(entryName, reader);
+        exportMetrics.record(ExportMetrics.PHASE_COPY, System.nanoTime() - start);
+        return written;
+    }
+
+    /**
+     * Only a folder directly below the base path may be resumed or verified.
+     */
+    private void checkExportFolderName(String exportFolder) {
+        if (!exportFolder.startsWith(LOG_FILE_PREFIX) || exportFolder.contains("/") || exportFolder.contains("\\")
+                || exportFolder.contains("..")) {
+            throw new IllegalArgumentException("Invalid export folder: " + exportFolder);
+        }
+    }
+
+    /**
+     * Build an export job continuing the export in the given dated folder of the base path.
+     */
+    private ExportJob initializeResumeParameters(String exportFolder) throws IOException {
+        checkExportFolderName(exportFolder);
+
+        ExportCheckpoint saved = ExportCheckpoint.read(Paths.get(exportBasePath).resolve(exportFolder));
+        if (saved.isCompleted()) {
+            throw new IllegalArgumentException("Export already completed: " + exportFolder);
+        }
+
+        ExportJob job = new ExportJob(AuthenticationUtil.getFullyAuthenticatedUser(), AuthenticationUtil.getRunAsUser(),
+            saved.getMaxDocs(), saved.getKeywords(), saved.getMimetype());
+        job.setResumeFolder(exportFolder);
+        job.setIncremental(saved.isIncremental());
+        job.setIncludeDeletions(saved.isIncludeDeletions());
+        job.setLayout(saved.getLayout());
+        job.setCompression(saved.getCompression());
+        job.setConsistency(saved.getConsistency());
+        return job;
+    }
+
+    /**
+     * Build an export job from the request parameters.
+     */
+    private ExportJob initializeParameters(WebScriptRequest req) throws IOException {
+        // Resume a previous export with the parameters saved in its checkpoint
+        String resumeParam = req.getParameter("resume");
+        if (resumeParam != null && !resumeParam.trim().isEmpty()) {
+            return initializeResumeParameters(resumeParam.trim());
+        }
+
+        // Check a previous export against its checksum manifest
+        String verifyParam = req.getParameter("verify");
+        if (verifyParam != null && !verifyParam.trim().isEmpty()) {
+            String exportFolder = verifyParam.trim();
+            checkExportFolderName(exportFolder);
+            ExportJob job = new ExportJob(AuthenticationUtil.getFullyAuthenticatedUser(), AuthenticationUtil.getRunAsUser(),
+                0, "", "");
+            job.setVerifyFolder(exportFolder);
+            return job;
+        }
+
         // Get parameters from request
         String maxDocsParam = req.getParameter("maxDocs");
-        this.maxDocs = (maxDocsParam != null && !maxDocsParam.isEmpty()) ?
+        int maxDocs = (maxDocsParam != null && !maxDocsParam.isEmpty()) ?
             Integer.parseInt(maxDocsParam) : 250;
 
         String keywordsParam = req.getParameter("keywords");
-        this.keywords = (keywordsParam != null) ? keywordsParam.trim() : "";
+        String keywords = (keywordsParam != null) ? keywordsParam.trim() : "";
 
         // Handle single mimetype selection
         String mimetypeParam = req.getParameter("mimetype");
-        this.mimetype = (mimetypeParam != null && !mimetypeParam.isEmpty()) ?
+        String mimetype = (mimetypeParam != null && !mimetypeParam.isEmpty()) ?
             mimetypeParam.trim() : "";
+
+        ExportJob job = new ExportJob(AuthenticationUtil.getFullyAuthenticatedUser(), AuthenticationUtil.getRunAsUser(),
+            maxDocs, keywords, mimetype);
+
+        // Incremental mode: only documents changed since the previous incremental run of the same query
+        job.setIncremental(Boolean.parseBoolean(req.getParameter("incremental")));
+        job.setIncludeDeletions(job.isIncremental() && Boolean.parseBoolean(req.getParameter("deletions")));
+
+        // Distributed mode: the whole match set, split between the nodes of the cluster
+        job.setDistributed(Boolean.parseBoolean(req.getParameter("distributed")));
+        if (job.isDistributed() && job.isIncremental()) {
+            throw new IllegalArgumentException("Un export distribué ne peut pas être incrémental.");
+        }
+
+        // Directory layout of the exported files
+        String layoutParam = req.getParameter("layout");
+        if (layoutParam != null && !layoutParam.trim().isEmpty()) {
+            if (!ExportLayout.isLayout(layoutParam.trim())) {
+                throw new IllegalArgumentException("Organisation des fichiers inconnue: " + layoutParam);
+            }
+            job.setLayout(layoutParam.trim());
+        } else {
+            job.setLayout(layout);
+        }
+
+        // Compression of the exported files
+        String compressionParam = req.getParameter("compression");
+        if (compressionParam != null && !compressionParam.trim().isEmpty()) {
+            if (!ExportCompressor.isMode(compressionParam.trim())) {
+                throw new IllegalArgumentException("Mode de compression inconnu: " + compressionParam);
+            }
+            job.setCompression(compressionParam.trim());
+        } else {
+            job.setCompression(compression);
+        }
+
+        // Search consistency: the database when possible, or the index only for bulk exports
+        String consistencyParam = req.getParameter("consistency");
+        if (consistencyParam != null && !consistencyParam.trim().isEmpty()) {
+            job.setConsistency(parseConsistency(consistencyParam.trim()));
+        } else {
+            job.setConsistency(consistency);
+        }
+        return job;
     }
 
 
+    /**
+     * Name of the query consistency given by its name, in any case.
+     */
+    private static String parseConsistency(String value) {
+        try {
+            return QueryConsistency.valueOf(value.toUpperCase(Locale.ROOT)).name();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cohérence de recherche inconnue: " + value);
+        }
+    }
+
     /**
      * Validate export base path and create dated subfolder.
      * The base path must exist (not created by code for security reasons).
      */
-    private void validateExportPath() throws IOException {
+    private void validateExportPath(ExportContext ctx) throws IOException {
         // Check that exportBasePath is configured
         if (exportBasePath == null || exportBasePath.trim().isEmpty()) {
             throw new IllegalArgumentException(
@@ -208,7 +668,7 @@ public class ExportWebScript extends DeclarativeWebScript {
                 "Configure the path in alfresco-global.properties using 'export.base.path' property.",
                 exportBasePath
             );
-            logToFileAndConsole("ERROR", errorMsg);
+            logToFileAndConsole(ctx, "ERROR", errorMsg);
             throw new IOException(errorMsg);
         }
 
@@ -219,197 +679,689 @@ public class ExportWebScript extends DeclarativeWebScript {
                 "Please grant write permissions to the Alfresco process.",
                 exportBasePath
             );
-            logToFileAndConsole("ERROR", errorMsg);
+            logToFileAndConsole(ctx, "ERROR", errorMsg);
             throw new IOException(errorMsg);
         }
 
-        logToFileAndConsole("INFO", "Base export directory verified: " + exportBasePath);
+        logToFileAndConsole(ctx, "INFO", "Base export directory verified: " + exportBasePath);
+
+        // Resume in the dated subfolder of a previous export
+        if (ctx.getJob().getResumeFolder() != null) {
+            Path resumePath = basePath.resolve(ctx.getJob().getResumeFolder());
+            if (!Files.isDirectory(resumePath)) {
+                throw new IOException("Export directory to resume does not exist: " + resumePath);
+            }
+            ctx.setExportPath(resumePath.toString());
+            logToFileAndConsole(ctx, "INFO", "Resuming export in directory: " + ctx.getExportPath());
+            return;
+        }
 
-        // Create dated subfolder: Export_YYYYMMDD_HHmmss
+        // Verification of a previous export, nothing is written but its report
+        if (ctx.getJob().getVerifyFolder() != null) {
+            Path verifyPath = basePath.resolve(ctx.getJob().getVerifyFolder());
+            if (!Files.isDirectory(verifyPath)) {
+                throw new IOException("Export directory to verify does not exist: " + verifyPath);
+            }
+            ctx.setExportPath(verifyPath.toString());
+            return;
+        }
+
+        // Shard of a distributed export, in the dated folder created by the node that planned it
+        if (ctx.getJob().getTargetFolder() != null) {
+            Path targetPath = Files.createDirectories(basePath.resolve(ctx.getJob().getTargetFolder()));
+            ctx.setExportPath(targetPath.toString());
+            logToFileAndConsole(ctx, "INFO", "Exporting shard in directory: " + ctx.getExportPath());
+            return;
+        }
+
+        // Create dated subfolder: Export_YYYYMMDD_HHmmss, suffixed when another export started in the same second
         String dateFolder = "Export_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
         Path datedPath = basePath.resolve(dateFolder);
-        Files.createDirectories(datedPath);
+        for (int i = 2; ; i++) {
+            try {
+                Files.createDirectory(datedPath);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                datedPath = basePath.resolve(dateFolder + "_" + i);
+            }
+        }
 
         // Update exportPath to point to the dated subfolder
-        this.exportPath = datedPath.toString();
-        logToFileAndConsole("INFO", "Created dated export directory: " + this.exportPath);
+        ctx.setExportPath(datedPath.toString());
+        logToFileAndConsole(ctx, "INFO", "Created dated export directory: " + ctx.getExportPath());
+    }
+
+    /**
+     * Check the files of an export directory against its checksum manifest, hashing on all processors.
+     *
+     * @return the job message
+     */
+    private String verifyExport(ExportContext ctx) throws IOException, InterruptedException {
+        logToFileAndConsole(ctx, "INFO", "Verifying export directory: " + ctx.getExportPath());
+        ExportVerifier verifier = new ExportVerifier(Paths.get(ctx.getExportPath()), verifyThreads);
+        verifier.verify(ctx.getJob());
+        if (verifier.getFailedCount() > 0) {
+            logToFileAndConsole(ctx, "WARN", String.format("%d files do not match the manifest, see %s",
+                verifier.getFailedCount(), ExportVerifier.REPORT_FILE));
+        }
+        return String.format("Vérification %s: %d fichiers vérifiés, %d en erreur (détail dans %s).",
+            ctx.getJob().isCancelRequested() ? "annulée" : "terminée",
+            verifier.getVerifiedCount(), verifier.getFailedCount(), ExportVerifier.REPORT_FILE);
+    }
+
+    /**
+     * Plan a distributed export: find the database id range of the match set and publish its shards
+     * to the nodes of the cluster, which export them into the dated folder. The job stays running
+     * until the shards are merged, one of them fails for good or the export is cancelled.
+     *
+     * @return the job message while the shards are exported
+     */
+    private String publishDistributedExport(final ExportContext ctx) {
+        final ExportSearch search = new ExportSearch(searchService, nodeService, ctx.getKeywords(), ctx.getMimetype(),
+            batchSize, ExportSearch.PAGINATION_KEYSET);
+        search.setConsistency(QueryConsistency.valueOf(ctx.getJob().getConsistency()));
+        final long[] bounds = retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<long[]>() {
+            @Override
+            public long[] execute() throws Throwable {
+                long minDbId = search.findDbIdBound(true);
+                return new long[] {minDbId, minDbId < 0 ? -1 : search.findDbIdBound(false)};
+            }
+        }, true, true);
+        if (bounds[0] < 0) {
+            return "Export distribué terminé: aucun document à exporter.";
+        }
+
+        final String folder = Paths.get(ctx.getExportPath()).getFileName().toString();
+        logToFileAndConsole(ctx, "INFO", String.format("Distributed export of database ids %d to %d, maxDocs ignored", bounds[0], bounds[1]));
+        // Followed before it is published, so that no other node adopts it meanwhile
+        exportCluster.follow(folder, ctx.getJob());
+        int shards = retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Integer>() {
+            @Override
+            public Integer execute() throws Throwable {
+                return exportCluster.publish(folder, ctx.getJob(), bounds[0], bounds[1]);
+            }
+        }, false, true);
+        return String.format("Export distribué planifié: %d fragments répartis entre les serveurs du cluster. "
+            + "Le fichier %s est écrit dans %s lorsque tous les fragments sont exportés.", shards, ExportCluster.MANIFEST_FILE, folder);
     }
 
     /**
-     * Build FTS-Alfresco search query based on keywords and mimetype.
-     * Uses hybrid approach: FTS query for performance + Java filter for reliability.
+     * Create the checkpoint of a new export, or load the one of the export being resumed.
+     * Files already written by the previous run keep their names.
      */
-    private String buildSearchQuery() {
-        StringBuilder query = new StringBuilder();
+    private void openCheckpoint(ExportContext ctx) throws IOException {
+        Path exportDir = Paths.get(ctx.getExportPath());
+        ExportJob job = ctx.getJob();
+        for (String checkpointFile : ExportCheckpoint.FILE_NAMES) {
+            ctx.getFileNames().reserve(checkpointFile);
+        }
+        if (job.isIncludeDeletions()) {
+            ctx.getFileNames().reserve(DELETIONS_FILE);
+        }
 
-        // Base: search only for content nodes (not folders)
-        query.append("TYPE:\"cm:content\"");
+        if (job.getResumeFolder() == null) {
+            if (job.isIncremental()) {
+                // Documents changed while this run is in progress are picked up by the next one, and so are
+                // documents changed shortly before but not yet indexed: the next run overlaps by the index lag
+                job.setModifiedSince(readWatermark(job));
+                long nextWatermark = job.getStartedAt() - incrementalIndexLag * 1000;
+                if (job.getModifiedSince() != null) {
+                    nextWatermark = Math.max(nextWatermark, job.getModifiedSince().getTime());
+                }
+                job.setNextWatermark(new Date(nextWatermark));
+                logToFileAndConsole(ctx, "INFO", "Incremental export, modified since: "
+                    + (job.getModifiedSince() != null ? job.getModifiedSince() : "(first run, full export)"));
+            }
+            ctx.setCheckpoint(ExportCheckpoint.create(exportDir, job, paginationMode, batchSize));
+            return;
+        }
 
-        // Add keyword search if present
-        if (keywords != null && !keywords.trim().isEmpty()) {
-            String cleanKeywords = keywords.replace("\"", "\\\"");
+        ExportCheckpoint checkpoint = ExportCheckpoint.read(exportDir);
+        ctx.setCheckpoint(checkpoint);
+        job.setModifiedSince(checkpoint.getModifiedSince());
+        job.setNextWatermark(checkpoint.getNextWatermark());
+        List<ExportCheckpoint.Entry> entries = checkpoint.resume();
+        for (ExportCheckpoint.Entry entry : entries) {
+            ctx.getFileNames().reserve(entry.getFileName());
+        }
+        job.restoreProgress(entries.size(), checkpoint.getBytesWritten());
+        logToFileAndConsole(ctx, "INFO", String.format("Checkpoint loaded: %d documents already exported (skip=%d, cursor=%d)",
+            entries.size(), checkpoint.getSkipCount(), checkpoint.getCursor()));
+    }
 
-            query.append(" AND (");
+    /**
+     * Watermark of the export's query, in a read-only transaction of its own.
+     */
+    private Date readWatermark(final ExportJob job) {
+        return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Date>() {
+            @Override
+            public Date execute() throws Throwable {
+                return exportWatermarks.getWatermark(job.getKeywords(), job.getMimetype());
+            }
+        }, true, true);
+    }
 
-            // Search in multiple fields
-            query.append("cm:name:\"").append(cleanKeywords).append("*\"");
-            query.append(" OR cm:title:\"").append(cleanKeywords).append("*\"");
-            query.append(" OR cm:description:\"").append(cleanKeywords).append("*\"");
+    /**
+     * Persist the search position; a failure is logged but does not stop the export.
+     */
+    private void saveCheckpoint(ExportContext ctx, long cursor, int skipCount, int extractedCount, boolean completed) {
+        try {
+            // Flushed with the checkpoint; lines flushed beyond it are dropped on resume
+            if (ctx.getChecksums() != null) {
+                ctx.getChecksums().flush();
+            }
+            ctx.getCheckpoint().save(cursor, skipCount, extractedCount, ctx.getJob().getBytesWritten(), completed);
+        } catch (IOException e) {
+            logToFileAndConsole(ctx, "ERROR", "Failed to write export checkpoint: " + e.getMessage());
+        }
+    }
 
-            query.append(")");
+    /**
+     * Finish an incremental run: list deletions and advance the query watermark.
+     * The watermark only moves when the whole match set was exported, not when maxDocs cut the run short.
+     */
+    private void completeIncrementalExport(final ExportContext ctx) throws IOException {
+        final ExportJob job = ctx.getJob();
+        if (!ctx.isMatchSetExhausted()) {
+            logToFileAndConsole(ctx, "WARN", "Maximum document limit reached before the end of the match set, watermark not advanced");
+            return;
         }
 
-        // Add mimetype filter if present
-        if (mimetype != null && !mimetype.trim().isEmpty()) {
-            // Use full namespace URI for reliable mimetype filtering
-            // Format: @{namespace}property:value
-            // Note: No escaping needed - FTS-Alfresco accepts {} and : in namespace URIs
-            query.append(" AND @{http://www.alfresco.org/model/content/1.0}content.mimetype:\"")
-                 .append(mimetype)
-                 .append("\"");
+        if (job.isIncludeDeletions()) {
+            if (job.getModifiedSince() != null) {
+                exportDeletions(ctx, job.getModifiedSince());
+            } else {
+                logToFileAndConsole(ctx, "INFO", "First incremental run, no deletion list");
+            }
         }
 
-        return query.toString();
+        retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>() {
+            @Override
+            public Void execute() throws Throwable {
+                exportWatermarks.setWatermark(ctx.getKeywords(), ctx.getMimetype(), job.getNextWatermark());
+                return null;
+            }
+        }, false, true);
+        logToFileAndConsole(ctx, "INFO", "Watermark advanced to: " + job.getNextWatermark());
     }
 
     /**
-     * Perform search and extract documents in batches.
+     * Write the documents of the match set deleted since the given date to {@value #DELETIONS_FILE},
+     * one line per node: NodeRef, name and deletion date.
+     * Deleted nodes are looked up in the archive store, which keeps their properties.
      */
-    private int performSearchAndExtract() {
-        int extractedCount = 0;
+    private void exportDeletions(ExportContext ctx, Date deletedSince) throws IOException {
+        final String query = ExportSearch.buildSearchQuery(ctx.getKeywords(), ctx.getMimetype(), null)
+            + " AND @{http://www.alfresco.org/model/system/1.0}archivedDate:[\"" + ISO8601DateFormat.format(deletedSince) + "\" TO MAX]";
+        int deletedCount = 0;
         int skipCount = 0;
 
-        // Build search query
-        String query = buildSearchQuery();
-        logToFileAndConsole("INFO", "========================================");
-        logToFileAndConsole("INFO", "Search query: " + query);
-        logToFileAndConsole("INFO", "Mimetype filter: " + (mimetype != null && !mimetype.isEmpty() ? mimetype : "(none)"));
-        logToFileAndConsole("INFO", "========================================");
+        Writer writer = Files.newBufferedWriter(Paths.get(ctx.getExportPath(), DELETIONS_FILE), StandardCharsets.UTF_8);
+        try {
+            while (true) {
+                // Lines are only written once the batch transaction succeeded, a retry must not repeat them
+                final int batchSkipCount = skipCount;
+                List<String> lines = retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<List<String>>() {
+                    @Override
+                    public List<String> execute() throws Throwable {
+                        SearchParameters searchParams = new SearchParameters();
+                        searchParams.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+                        searchParams.addStore(StoreRef.STORE_REF_ARCHIVE_SPACESSTORE);
+                        searchParams.setQuery(query);
+                        searchParams.setSkipCount(batchSkipCount);
+                        searchParams.setMaxItems(batchSize);
+
+                        List<String> batch = new ArrayList<>();
+                        ResultSet results = searchService.query(searchParams);
+                        try {
+                            for (NodeRef archivedRef : results.getNodeRefs()) {
+                                Map<QName, Serializable> properties = nodeService.getProperties(archivedRef);
+                                Date archivedDate = (Date) properties.get(ContentModel.PROP_ARCHIVED_DATE);
+                                batch.add(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, archivedRef.getId())
+                                    + "\t" + properties.get(ContentModel.PROP_NAME)
+                                    + "\t" + (archivedDate != null ? ISO8601DateFormat.format(archivedDate) : "") + "\n");
+                            }
+                        } finally {
+                            results.close();
+                        }
+                        return batch;
+                    }
+                }, true, true);
 
-        // Create export directory
-        File exportDir = new File(exportPath);
-
-        // Search and extract in batches
-        while (extractedCount < maxDocs) {
-            // Setup search parameters
-            SearchParameters searchParams = new SearchParameters();
-            searchParams.setLanguage(FTS_ALFRESCO);
-            searchParams.setQuery(query);
-            searchParams.setSkipCount(skipCount);
-            searchParams.setMaxItems(DEFAULT_BATCH_SIZE);
-            searchParams.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
-            searchParams.setQueryConsistency(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE);
-
-            ResultSet results = null;
-            try {
-                // Execute search
-                results = searchService.query(searchParams);
+                if (lines.isEmpty()) {
+                    break;
+                }
+                for (String line : lines) {
+                    writer.write(line);
+                }
+                deletedCount += lines.size();
+                skipCount += lines.size();
+            }
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
 
-                logToFileAndConsole("DEBUG", String.format("Batch %d: found %d results (skip=%d)",
-                    (skipCount / DEFAULT_BATCH_SIZE + 1), results.length(), skipCount));
+        logToFileAndConsole(ctx, "INFO", String.format("Deletion list written: %d documents deleted since %s", deletedCount, deletedSince));
+    }
 
-                // No more results
-                if (results.length() == 0) {
-                    logToFileAndConsole("INFO", "No more documents found");
-                    break;
+    /**
+     * Export the documents of a job into an existing directory in the calling thread, without the queue,
+     * the export log, the metrics run or the distribution of a submitted job. Used by the pipeline benchmark.
+     *
+     * @return the number of documents exported, including those of a previous run
+     */
+    public int runExport(ExportJob job, String exportPath) throws IOException {
+        job.markRunning();
+        ExportContext ctx = new ExportContext(job);
+        ctx.setExportPath(exportPath);
+        try {
+            return exportDocuments(ctx);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Open the checkpoint, set up the layout, deduplication and integrity manifest of the export,
+     * then search and write its documents. The export directory must have been validated.
+     *
+     * @return the number of documents exported, including those of a previous run
+     */
+    private int exportDocuments(ExportContext ctx) throws IOException {
+        openCheckpoint(ctx);
+        ctx.setPathResolver(new ExportPathResolver(nodeService, pathCacheSize));
+        ctx.setLayout(new ExportLayout(ctx.getCheckpoint().getLayout(), layoutFanout, layoutDepth, ctx.getPathResolver()));
+        logToFileAndConsole(ctx, "INFO", "Directory layout: " + ctx.getLayout().getMode()
+            + ", compression: " + ctx.getCheckpoint().getCompression());
+        ExportDeduplication deduplication = new ExportDeduplication(Paths.get(ctx.getExportPath()), dedupMode);
+        ctx.setDeduplication(deduplication);
+        if (deduplication.isManifest()) {
+            ctx.getFileNames().reserve(ExportDeduplication.MANIFEST_FILE);
+        }
+        if (!CHECKSUM_NONE.equals(checksumMode)) {
+            if (ctx.getJob().getResumeFolder() != null) {
+                int listed = ExportChecksums.retainExported(Paths.get(ctx.getExportPath()), ctx.getCheckpoint());
+                if (listed < ctx.getJob().getExtractedCount()) {
+                    logToFileAndConsole(ctx, "WARN", String.format("%d documents of the checkpoint are missing from %s and will not be verified",
+                        ctx.getJob().getExtractedCount() - listed, ExportChecksums.MANIFEST_FILE));
                 }
+            }
+            ctx.setChecksums(new ExportChecksums(Paths.get(ctx.getExportPath()), CHECKSUM_SHA256.equals(checksumMode),
+                deduplication.isEnabled()));
+            ctx.getFileNames().reserve(ExportChecksums.MANIFEST_FILE);
+            ctx.getFileNames().reserve(ExportChecksums.MANIFEST_TMP_FILE);
+            ctx.getFileNames().reserve(ExportVerifier.REPORT_FILE);
+        }
 
-                // Extract each document
-                for (NodeRef nodeRef : results.getNodeRefs()) {
-                    if (extractedCount >= maxDocs) {
-                        logToFileAndConsole("INFO", "Reached maximum document limit: " + maxDocs);
+        // Perform search and export
+        int extractedCount = performSearchAndExtract(ctx);
+        if (ExportLayout.LAYOUT_MIRROR.equals(ctx.getLayout().getMode())) {
+            logToFileAndConsole(ctx, "INFO", String.format("Folder path cache: %d hits, %d misses",
+                ctx.getPathResolver().getHits(), ctx.getPathResolver().getMisses()));
+        }
+        if (deduplication.getDuplicateCount() > 0) {
+            logToFileAndConsole(ctx, "INFO", String.format("Duplicate content (%s): %d documents, %d bytes not copied",
+                deduplication.getMode(), deduplication.getDuplicateCount(), deduplication.getSavedBytes()));
+        }
+        return extractedCount;
+    }
+
+    /**
+     * Perform search and extract documents in batches, continuing from the checkpoint position.
+     */
+    private int performSearchAndExtract(ExportContext ctx) {
+        ExportJob job = ctx.getJob();
+        ExportCheckpoint checkpoint = ctx.getCheckpoint();
+        int maxDocs = ctx.getMaxDocs();
+
+        // Documents exported by a previous run count towards maxDocs
+        int extractedCount = job.getExtractedCount();
+        boolean completed = false;
+        ctx.setMatchSetExhausted(false);
+        ExportSearch search = new ExportSearch(searchService, nodeService, ctx.getKeywords(), ctx.getMimetype(),
+            job.getModifiedSince(), checkpoint.getBatchSize(), checkpoint.getPaginationMode());
+        search.setDbIdRange(job.getMinDbId(), job.getMaxDbId());
+        search.setConsistency(QueryConsistency.valueOf(checkpoint.getConsistency()));
+        search.resumeFrom(checkpoint.getCursor(), checkpoint.getSkipCount());
+
+        // Build search query
+        logToFileAndConsole(ctx, "INFO", "========================================");
+        logToFileAndConsole(ctx, "INFO", "Search query: " + search.getQuery());
+        logToFileAndConsole(ctx, "INFO", "Mimetype filter: " + (!ctx.getMimetype().isEmpty() ? ctx.getMimetype() : "(none)"));
+        logToFileAndConsole(ctx, "INFO", String.format("Pagination: %s, batch size %d, consistency %s, prefetch depth %d",
+            search.isKeyset() ? ExportSearch.PAGINATION_KEYSET : ExportSearch.PAGINATION_OFFSET, search.getBatchSize(),
+            search.getConsistency(), prefetchDepth));
+        logToFileAndConsole(ctx, "INFO", "========================================");
+
+        // Create export directory
+        File exportDir = new File(ctx.getExportPath());
+
+        // Search and extract in batches, the next batches being fetched while the current one is written
+        ExportSearchPipeline pipeline = new ExportSearchPipeline(newBatchFetcher(ctx, search), prefetchDepth,
+            "ExportSearch-" + job.getId());
+        long cursor = search.getCursor();
+        int skipCount = search.getSkipCount();
+        try {
+            while (extractedCount < maxDocs && !job.isCancelRequested()) {
+                job.setSkipCount(skipCount);
+                job.setCursor(cursor);
+
+                try {
+                    // Execute search, or take the batch fetched in the background
+                    long start = System.nanoTime();
+                    ExportSearchPipeline.Batch batch = pipeline.take();
+                    exportMetrics.record(ExportMetrics.PHASE_SEARCH_WAIT, System.nanoTime() - start);
+                    List<NodeRef> nodeRefs = batch.getNodeRefs();
+
+                    // No more results
+                    if (nodeRefs.isEmpty()) {
+                        logToFileAndConsole(ctx, "INFO", "No more documents found");
+                        completed = true;
+                        ctx.setMatchSetExhausted(true);
                         break;
                     }
 
-                    try {
-                        if (extractDocument(nodeRef, exportDir)) {
-                            extractedCount++;
-                            docCount.incrementAndGet();
-                        }
-                    } catch (Exception e) {
-                        logToFileAndConsole("ERROR", "Failed to extract document " + nodeRef + ": " + e.getMessage());
+                    // Extract the batch on the worker pool
+                    extractedCount += extractBatch(ctx, nodeRefs, exportDir, maxDocs - extractedCount);
+                    cursor = batch.getCursor();
+                    skipCount = batch.getSkipCount();
+                    if (extractedCount >= maxDocs) {
+                        logToFileAndConsole(ctx, "INFO", "Reached maximum document limit: " + maxDocs);
+                        completed = true;
+                    } else if (job.isCancelRequested()) {
+                        logToFileAndConsole(ctx, "WARN", "Export cancelled after " + extractedCount + " documents");
                     }
-                }
 
-                skipCount += DEFAULT_BATCH_SIZE;
+                    // The batch is complete, later runs can resume after it
+                    if (!job.isCancelRequested()) {
+                        saveCheckpoint(ctx, cursor, skipCount, extractedCount, false);
+                    }
 
-            } catch (Exception e) {
-                logToFileAndConsole("ERROR", "Search failed at skip=" + skipCount + ": " + e.getMessage());
-                break;
-            } finally {
-                if (results != null) {
-                    results.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logToFileAndConsole(ctx, "ERROR", "Export interrupted at skip=" + skipCount + ", cursor=" + cursor);
+                    break;
+                } catch (ExecutionException e) {
+                    logToFileAndConsole(ctx, "ERROR", "Search failed at skip=" + skipCount + ", cursor=" + cursor + ": " + e.getCause().getMessage());
+                    break;
+                } catch (Exception e) {
+                    logToFileAndConsole(ctx, "ERROR", "Export failed at skip=" + skipCount + ", cursor=" + cursor + ": " + e.getMessage());
+                    break;
                 }
             }
+        } finally {
+            pipeline.close();
         }
 
+        if (completed) {
+            saveCheckpoint(ctx, cursor, skipCount, extractedCount, true);
+        }
         return extractedCount;
     }
 
     /**
-     * Extract a single document to the export directory.
+     * Record the time an operation was held back by the throttle.
      */
-    private boolean extractDocument(NodeRef nodeRef, File exportDir) {
-        // Verify node exists
-        if (!nodeService.exists(nodeRef)) {
-            return false;
+    private void recordThrottleWait(long nanos) {
+        if (nanos > 0) {
+            exportMetrics.record(ExportMetrics.PHASE_THROTTLE, nanos);
         }
+    }
 
-        // Get document name
-        String fileName = (String) nodeService.getProperty(nodeRef, ContentModel.PROP_NAME);
-        if (fileName == null) {
-            fileName = nodeRef.getId() + ".bin";
+    /**
+     * Run the next search batch once the throttle allows it, recording its latency.
+     * The batch is read in a short read-only transaction of its own, retried alone,
+     * unless the caller already runs one.
+     */
+    private List<NodeRef> nextBatch(final ExportSearch search) throws InterruptedException {
+        recordThrottleWait(exportThrottle.acquireSearch());
+        long start = System.nanoTime();
+        try {
+            return retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<List<NodeRef>>() {
+                @Override
+                public List<NodeRef> execute() throws Throwable {
+                    return search.nextBatch();
+                }
+            }, true, false);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            exportMetrics.record(ExportMetrics.PHASE_SEARCH, elapsed);
+            exportThrottle.recordSearchLatency(elapsed);
+        }
+    }
+
+    /**
+     * Fetch of the next search batch with the metadata of its documents, run as the job's user
+     * on the thread of the search pipeline.
+     */
+    private Callable<ExportSearchPipeline.Batch> newBatchFetcher(final ExportContext ctx, final ExportSearch search) {
+        final ExportJob job = ctx.getJob();
+        return new Callable<ExportSearchPipeline.Batch>() {
+            @Override
+            public ExportSearchPipeline.Batch call() throws Exception {
+                return AuthenticationUtil.runAs(new AuthenticationUtil.RunAsWork<ExportSearchPipeline.Batch>() {
+                    @Override
+                    public ExportSearchPipeline.Batch doWork() throws Exception {
+                        List<NodeRef> nodeRefs = nextBatch(search);
+
+                        // Already exported by a previous run of a resumed export
+                        List<NodeRef> toPrefetch = new ArrayList<>(nodeRefs.size());
+                        for (NodeRef nodeRef : nodeRefs) {
+                            if (!ctx.getCheckpoint().isExported(nodeRef.toString())) {
+                                toPrefetch.add(nodeRef);
+                            }
+                        }
+                        prefetchMetadata(ctx, toPrefetch);
+                        return new ExportSearchPipeline.Batch(nodeRefs, search.getCursor(), search.getSkipCount());
+                    }
+                }, job.getRunAsUser() != null ? job.getRunAsUser() : job.getUser());
+            }
+        };
+    }
+
+    /**
+     * Extract the documents of one search batch in parallel, never more than {@code limit}.
+     * Documents are handed out only as long as the limit can still be reached, so that failed
+     * extractions are replaced by the next documents of the batch rather than lost.
+     *
+     * @return the number of documents extracted
+     */
+    private int extractBatch(ExportContext ctx, List<NodeRef> batch, final File exportDir, int limit) throws InterruptedException {
+        int extracted = 0;
+        int index = 0;
+
+        // Already exported by a previous run of a resumed export
+        List<NodeRef> nodeRefs = new ArrayList<>(batch.size());
+        for (NodeRef nodeRef : batch) {
+            if (!ctx.getCheckpoint().isExported(nodeRef.toString())) {
+                nodeRefs.add(nodeRef);
+            }
         }
 
-        // Handle duplicate file names
-        String uniqueFileName = getUniqueFileName(fileName);
+        while (index < nodeRefs.size() && extracted < limit && !ctx.getJob().isCancelRequested()) {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (; index < nodeRefs.size() && futures.size() < limit - extracted; index++) {
+                futures.add(exportWorkerPool.submit(newExtractionTask(ctx, nodeRefs.get(index), exportDir)));
+            }
 
-        // Get content reader
-        ContentReader reader = contentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
-        if (reader == null || !reader.exists()) {
-            logToFileAndConsole("WARN", "No content for: " + fileName);
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get()) {
+                        extracted++;
+                    } else {
+                        exportMetrics.documentSkipped();
+                    }
+                } catch (ExecutionException e) {
+                    logToFileAndConsole(ctx, "ERROR", "Extraction worker failed: " + e.getCause().getMessage());
+                }
+            }
+        }
+
+        return extracted;
+    }
+
+    /**
+     * Load the nodes of a batch, with their properties and aspects, into the node caches in a few bulk queries,
+     * so that the existence, name and content lookups of the extraction workers are cache hits.
+     * Runs in its own transaction: transactional caches only publish to the shared caches on commit.
+     */
+    private void prefetchMetadata(ExportContext ctx, final List<NodeRef> nodeRefs) {
+        if (nodeDAO == null || nodeRefs.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>() {
+                @Override
+                public Void execute() throws Throwable {
+                    nodeDAO.cacheNodes(nodeRefs);
+                    return null;
+                }
+            }, true, true);
+        } catch (Exception e) {
+            // Extraction still works without the cache, one lookup at a time
+            logToFileAndConsole(ctx, "WARN", "Metadata prefetch failed: " + e.getMessage());
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        exportMetrics.record(ExportMetrics.PHASE_PREFETCH, elapsed);
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Prefetched metadata of %d nodes in %d ms", nodeRefs.size(), elapsed / 1000000));
+        }
+    }
+
+    /**
+     * Extraction of one document, run on a worker thread as the job's user. Its metadata is read in its own
+     * read-only transaction, the throttle is waited for and the content written outside of it.
+     */
+    private Callable<Boolean> newExtractionTask(final ExportContext ctx, final NodeRef nodeRef, final File exportDir) {
+        final ExportJob job = ctx.getJob();
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (job.isCancelRequested()) {
+                    return false;
+                }
+                try {
+                    AuthenticationUtil.setFullyAuthenticatedUser(job.getUser());
+                    return AuthenticationUtil.runAs(new AuthenticationUtil.RunAsWork<Boolean>() {
+                        @Override
+                        public Boolean doWork() throws Exception {
+                            recordThrottleWait(exportThrottle.acquireDocument());
+                            ExportDocument document = retryingTransactionHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<ExportDocument>() {
+                                @Override
+                                public ExportDocument execute() throws Throwable {
+                                    return readDocument(nodeRef, ctx.getLayout(),
+                                        ctx.getChecksums() != null ? ctx.getPathResolver() : null);
+                                }
+                            }, true, true);
+                            return document != null && extractDocument(ctx, document, exportDir);
+                        }
+                    }, job.getRunAsUser() != null ? job.getRunAsUser() : job.getUser());
+                } catch (Exception e) {
+                    logToFileAndConsole(ctx, "ERROR", "Failed to extract document " + nodeRef + ": " + e.getMessage());
+                    return false;
+                } finally {
+                    AuthenticationUtil.clearCurrentSecurityContext();
+                }
+            }
+        };
+    }
+
+    /**
+     * Write a single document to the export directory.
+     */
+    private boolean extractDocument(ExportContext ctx, ExportDocument document, File exportDir) throws InterruptedException {
+        NodeRef nodeRef = document.getNodeRef();
+        String fileName = document.getName();
+        ContentReader reader = document.getReader();
+        if (reader == null) {
+            logToFileAndConsole(ctx, "WARN", "No content for: " + fileName);
             return false;
         }
 
         // Get actual mimetype for debugging
         String actualMimetype = reader.getMimetype();
+        boolean compressed = exportCompressor.isCompressed(ctx.getCheckpoint().getCompression(), actualMimetype);
+
+        // Place the file in the layout, then handle duplicate file names
+        long start = System.nanoTime();
+        String uniqueFileName = ctx.getFileNames().allocate(compressed
+            ? document.getRelativePath() + ExportCompressor.SUFFIX : document.getRelativePath());
+        exportMetrics.record(ExportMetrics.PHASE_ALLOCATE, System.nanoTime() - start);
 
         // Write to file system
         File targetFile = new File(exportDir, uniqueFileName);
-        InputStream inputStream = null;
 
         try {
-            inputStream = reader.getContentInputStream();
-            Files.copy(inputStream, targetFile.toPath());
+            ctx.getLayout().createParentDirectory(targetFile.toPath());
+
+            // Content already written by this export is linked or referenced instead of copied again
+            ExportDeduplication deduplication = ctx.getDeduplication();
+            String contentUrl = reader.getContentUrl();
+            ExportDeduplication.Original original = deduplication.findOriginal(contentUrl);
+            if (original != null && deduplication.writeDuplicate(original, uniqueFileName, nodeRef.toString())) {
+                // A manifest duplicate has no file of its own: its entries point to the file holding the content
+                String writtenFileName = deduplication.isManifest() ? original.getFileName() : uniqueFileName;
+                recordChecksum(ctx, document, writtenFileName, actualMimetype, original.getSize(), null);
+                ctx.getCheckpoint().recordExported(nodeRef.toString(), fileName, writtenFileName);
+                logToFileAndConsole(ctx, "DEBUG", "Duplicate content: " + uniqueFileName + " -> " + original.getFileName());
+                exportMetrics.documentExtracted(0);
+                logDocumentExtracted(ctx, ctx.getJob().documentExtracted(0), uniqueFileName, 0, actualMimetype);
+                return true;
+            }
 
-            long fileSize = targetFile.length();
-            logToFileAndConsole("INFO", String.format("Extracted [%d]: %s (%s) - mimetype: %s",
-                docCount.get() + 1, uniqueFileName, formatFileSize(fileSize),
-                actualMimetype != null ? actualMimetype : "unknown"));
+            recordThrottleWait(exportThrottle.acquireBytes(reader.getSize()));
+
+            // A file left by an interrupted run without a checkpoint entry is overwritten
+            MessageDigest digest = ctx.getChecksums() != null ? ctx.getChecksums().newDigest() : null;
+            start = System.nanoTime();
+            long fileSize = compressed
+                ? exportCompressor.compress(reader, targetFile.toPath(), digest)
+                : contentCopier.copy(reader, targetFile.toPath(), digest);
+            exportMetrics.record(ExportMetrics.PHASE_COPY, System.nanoTime() - start);
+            exportMetrics.documentExtracted(fileSize);
+            deduplication.recordOriginal(contentUrl, uniqueFileName, fileSize);
+            recordChecksum(ctx, document, uniqueFileName, actualMimetype, fileSize, digest);
+            ctx.getCheckpoint().recordExported(nodeRef.toString(), fileName, uniqueFileName);
+            logDocumentExtracted(ctx, ctx.getJob().documentExtracted(fileSize), uniqueFileName, fileSize, actualMimetype);
 
             return true;
 
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
-            logToFileAndConsole("ERROR", "Failed to write file " + uniqueFileName + ": " + e.getMessage());
+            logToFileAndConsole(ctx, "ERROR", "Failed to write file " + uniqueFileName + ": " + e.getMessage());
             return false;
-        } finally {
-            IOUtils.closeQuietly(inputStream);
         }
     }
 
     /**
-     * Generate a unique file name to avoid overwriting existing files.
+     * Add an exported document to the integrity manifest, if enabled.
      */
-    private String getUniqueFileName(String fileName) {
-        Integer counter = fileNameCounters.get(fileName);
+    private void recordChecksum(ExportContext ctx, ExportDocument document, String fileName, String mimetype,
+                                long size, MessageDigest digest) throws IOException {
+        ExportChecksums checksums = ctx.getChecksums();
+        if (checksums == null) {
+            return;
+        }
+        checksums.record(document.getNodeRef().toString(), document.getRepositoryPath(), fileName, mimetype, size,
+            document.getModified(), document.getReader().getContentUrl(), digest);
+    }
 
-        if (counter == null) {
-            fileNameCounters.put(fileName, 1);
-            return fileName;
-        } else {
-            fileNameCounters.put(fileName, counter + 1);
-            // Insert counter before file extension
-            return fileName.replaceFirst("(\\.[^.]*)?$", "_" + counter + "$1");
+    /**
+     * Log an extracted document. Every document goes to the console at DEBUG level, the export log
+     * only receives an aggregated progress line every {@code logSampleInterval} documents.
+     */
+    private void logDocumentExtracted(ExportContext ctx, int count, String fileName, long fileSize, String actualMimetype) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Extracted [%d]: %s (%s) - mimetype: %s",
+                count, fileName, formatFileSize(fileSize),
+                actualMimetype != null ? actualMimetype : "unknown"));
+        }
+        if (count % logSampleInterval == 0) {
+            logToFileAndConsole(ctx, "INFO", String.format("Progress: %d documents extracted (%s), last: %s",
+                count, formatFileSize(ctx.getJob().getBytesWritten()), fileName));
         }
     }
 
@@ -425,14 +1377,29 @@ public class ExportWebScript extends DeclarativeWebScript {
 
     /**
      * Initialize log file in user's home directory.
+     * The name is suffixed when another export of the same user started in the same second.
+     * A shard writes to the log of its distributed export instead.
      */
-    private void initLogFile() {
+    private void initLogFile(ExportContext ctx) {
         try {
+            NodeRef exportLogRef = ctx.getJob().getShardIndex() >= 0 ? ctx.getJob().getLogFileRef() : null;
+            if (exportLogRef != null && nodeService.exists(exportLogRef)) {
+                // Lines of a shard go to the log of its distributed export
+                ctx.setLogFileRef(exportLogRef);
+                ctx.setExportLog(new ExportLog(exportLogRef, contentService, retryingTransactionHelper, exportMetrics));
+                logToFileAndConsole(ctx, "INFO", "Shard " + ctx.getJob().getTargetFolder() + " of the distributed export");
+                return;
+            }
+
             NodeRef person = repository.getFullyAuthenticatedPerson();
             if (person != null) {
                 NodeRef userHome = repository.getUserHome(person);
                 if (userHome != null) {
-                    String logFileName = LOG_FILE_PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + LOG_FILE_SUFFIX;
+                    String baseName = LOG_FILE_PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+                    String logFileName = baseName + LOG_FILE_SUFFIX;
+                    for (int i = 2; nodeService.getChildByName(userHome, ContentModel.ASSOC_CONTAINS, logFileName) != null; i++) {
+                        logFileName = baseName + "_" + i + LOG_FILE_SUFFIX;
+                    }
 
                     Map<QName, Serializable> properties = new HashMap<>();
                     properties.put(ContentModel.PROP_NAME, logFileName);
@@ -444,13 +1411,17 @@ public class ExportWebScript extends DeclarativeWebScript {
                             ContentModel.TYPE_CONTENT,
                             properties);
 
-                    logFileRef = association.getChildRef();
+                    NodeRef logFileRef = association.getChildRef();
+                    ctx.setLogFileRef(logFileRef);
                     ContentWriter writer = contentService.getWriter(logFileRef, ContentModel.PROP_CONTENT, true);
                     writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
                     writer.setEncoding("UTF-8");
                     writer.putContent("");
 
-                    logToFileAndConsole("INFO", "Log file initialized: " + logFileName);
+                    ctx.getJob().setLogFileRef(logFileRef);
+                    ctx.setExportLog(new ExportLog(logFileRef, contentService, retryingTransactionHelper, exportMetrics));
+
+                    logToFileAndConsole(ctx, "INFO", "Log file initialized: " + logFileName);
                 }
             }
         } catch (Exception e) {
@@ -460,26 +1431,15 @@ public class ExportWebScript extends DeclarativeWebScript {
 
     /**
      * Write log message to both file and console.
+     * DEBUG and TRACE lines only reach the file when the console logger is enabled for them.
      */
-    private void logToFileAndConsole(String level, String message) {
-        String formattedMessage = new Date() + " - " + level + " - " + message + "\n";
-
-        // Write to log file in repository
-        if (logFileRef != null) {
-            try {
-                String currentContent = "";
-                ContentReader reader = contentService.getReader(logFileRef, ContentModel.PROP_CONTENT);
-                if (reader != null && reader.exists()) {
-                    currentContent = reader.getContentString();
-                }
+    private void logToFileAndConsole(ExportContext ctx, String level, String message) {
+        boolean verbose = "DEBUG".equals(level) || "TRACE".equals(level);
 
-                ContentWriter writer = contentService.getWriter(logFileRef, ContentModel.PROP_CONTENT, true);
-                writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
-                writer.setEncoding("UTF-8");
-                writer.putContent(currentContent + formattedMessage);
-            } catch (Exception e) {
-                logger.error("Failed to write to log file", e);
-            }
+        // Append to the buffered log file in repository
+        ExportLog exportLog = ctx.getExportLog();
+        if (exportLog != null && (!verbose || logger.isDebugEnabled())) {
+            exportLog.append(new Date() + " - " + level + " - " + message + "\n");
         }
 
         // Write to console
@@ -503,11 +1463,13 @@ public class ExportWebScript extends DeclarativeWebScript {
     /**
      * Close log file resources.
      */
-    private void closeLogFile() {
+    private void closeLogFile(ExportContext ctx) {
         try {
-            if (logFileRef != null) {
-                logFileRef = null;
+            if (ctx.getExportLog() != null) {
+                ctx.getExportLog().close();
+                ctx.setExportLog(null);
             }
+            ctx.setLogFileRef(null);
             logger.info("Log file closed successfully");
         } catch (Exception e) {
             logger.error("Error closing log file", e);
@@ -535,7 +1497,104 @@ public class ExportWebScript extends DeclarativeWebScript {
         this.retryingTransactionHelper = helper;
     }
 
+    public void setExportJobService(ExportJobService exportJobService) {
+        this.exportJobService = exportJobService;
+    }
+
+    public void setExportWorkerPool(ExportWorkerPool exportWorkerPool) {
+        this.exportWorkerPool = exportWorkerPool;
+    }
+
+    public void setExportMetrics(ExportMetrics exportMetrics) {
+        this.exportMetrics = exportMetrics;
+    }
+
+    public void setExportThrottle(ExportThrottle exportThrottle) {
+        this.exportThrottle = exportThrottle;
+    }
+
+    public void setExportCluster(ExportCluster exportCluster) {
+        this.exportCluster = exportCluster;
+    }
+
+    public void setExportCompressor(ExportCompressor exportCompressor) {
+        this.exportCompressor = exportCompressor;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO) {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setExportWatermarks(ExportWatermarks exportWatermarks) {
+        this.exportWatermarks = exportWatermarks;
+    }
+
+    public void setZeroCopy(boolean zeroCopy) {
+        this.contentCopier = new ExportContentCopier(zeroCopy);
+    }
+
+    public void setLayout(String layout) {
+        this.layout = ExportLayout.isLayout(layout) ? layout : ExportLayout.LAYOUT_FLAT;
+    }
+
+    public void setLayoutFanout(int layoutFanout) {
+        this.layoutFanout = layoutFanout;
+    }
+
+    public void setLayoutDepth(int layoutDepth) {
+        this.layoutDepth = layoutDepth;
+    }
+
+    public void setPathCacheSize(int pathCacheSize) {
+        this.pathCacheSize = Math.max(1, pathCacheSize);
+    }
+
+    public void setCompression(String compression) {
+        this.compression = ExportCompressor.isMode(compression) ? compression : ExportCompressor.MODE_NONE;
+    }
+
+    public void setPlanMaxScan(int planMaxScan) {
+        this.planMaxScan = Math.max(1, planMaxScan);
+    }
+
+    public void setIncrementalIndexLag(long incrementalIndexLag) {
+        this.incrementalIndexLag = Math.max(0, incrementalIndexLag);
+    }
+
+    public void setDedupMode(String dedupMode) {
+        this.dedupMode = dedupMode;
+    }
+
+    public void setChecksumMode(String checksumMode) {
+        this.checksumMode = checksumMode;
+    }
+
+    public void setVerifyThreads(int verifyThreads) {
+        this.verifyThreads = verifyThreads;
+    }
+
     public void setExportBasePath(String exportBasePath) {
         this.exportBasePath = exportBasePath;
     }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    public void setPaginationMode(String paginationMode) {
+        this.paginationMode = ExportSearch.PAGINATION_OFFSET.equalsIgnoreCase(paginationMode)
+            ? ExportSearch.PAGINATION_OFFSET : ExportSearch.PAGINATION_KEYSET;
+    }
+
+    public void setConsistency(String consistency) {
+        this.consistency = parseConsistency(consistency);
+    }
+
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = Math.max(0, prefetchDepth);
+    }
+
+    public void setLogSampleInterval(int logSampleInterval) {
+        this.logSampleInterval = Math.max(1, logSampleInterval);
+    }
 }
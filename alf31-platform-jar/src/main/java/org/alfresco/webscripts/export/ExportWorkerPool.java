@@ -0,0 +1,78 @@
+package org.alfresco.webscripts.export;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of content extraction workers fed by the export search loop.
+ * At most {@code threads + queueSize} tasks are accepted at once; further submissions block the caller,
+ * so the search loop cannot run ahead of the copies.
+ */
+public class ExportWorkerPool {
+
+    private ExecutorService executor;
+    private Semaphore slots;
+
+    // Configuration
+    private int threads = 4;
+    private int queueSize = 100;
+
+    public void init() {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        slots = new Semaphore(threads + queueSize);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ExportWorker-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submit a task, waiting for a free slot if the pool is saturated.
+     */
+    public <T> Future<T> submit(final Callable<T> task) throws InterruptedException {
+        slots.acquire();
+        try {
+            return executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return task.call();
+                    } finally {
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // Spring setters for dependency injection
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = Math.max(0, queueSize);
+    }
+}
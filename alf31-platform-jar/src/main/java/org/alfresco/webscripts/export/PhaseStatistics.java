@@ -0,0 +1,58 @@
+package org.alfresco.webscripts.export;
+
+/**
+ * Snapshot of the latency of one export phase, as exposed over JMX.
+ */
+public class PhaseStatistics {
+    private final String name;
+    private final long count;
+    private final double totalMillis;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p95Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    PhaseStatistics(String name, LatencyHistogram histogram) {
+        this.name = name;
+        this.count = histogram.getCount();
+        this.totalMillis = histogram.getTotalMillis();
+        this.meanMillis = histogram.getMeanMillis();
+        this.p50Millis = histogram.getPercentileMillis(50);
+        this.p95Millis = histogram.getPercentileMillis(95);
+        this.p99Millis = histogram.getPercentileMillis(99);
+        this.maxMillis = histogram.getMaxMillis();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP95Millis() {
+        return p95Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+}
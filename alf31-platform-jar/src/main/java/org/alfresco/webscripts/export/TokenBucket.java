@@ -0,0 +1,80 @@
+package org.alfresco.webscripts.export;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting a rate per second, with a burst of one second worth of tokens.
+ * A request larger than the available tokens leaves the bucket in debt and waits until it is repaid,
+ * so that a document larger than the burst still goes through, followed by a proportionally longer pause.
+ */
+public class TokenBucket {
+
+    /**
+     * Time source of the bucket and of the throttle around it, replaced in tests.
+     */
+    interface Clock {
+
+        long nanoTime();
+
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    };
+
+    private final double ratePerSecond;
+    private final Clock clock;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond) {
+        this(ratePerSecond, SYSTEM_CLOCK);
+    }
+
+    TokenBucket(double ratePerSecond, Clock clock) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.clock = clock;
+        this.tokens = ratePerSecond;
+        this.lastRefill = clock.nanoTime();
+    }
+
+    /**
+     * Take tokens, sleeping until the bucket is out of debt.
+     * Concurrent callers are served in arrival order of their reservations.
+     *
+     * @param permits tokens to take
+     * @param factor  share of the configured rate currently allowed, between 0 (excluded) and 1
+     * @return the time waited, in nanoseconds
+     */
+    public long acquire(long permits, double factor) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            double rate = ratePerSecond * factor;
+            long now = clock.nanoTime();
+            tokens = Math.min(ratePerSecond, tokens + (now - lastRefill) / 1e9 * rate);
+            lastRefill = now;
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+        if (waitNanos > 0) {
+            clock.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+}
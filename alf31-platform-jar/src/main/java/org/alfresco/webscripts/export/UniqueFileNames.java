@@ -0,0 +1,43 @@
+package org.alfresco.webscripts.export;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Allocates file names within one export target, suffixing duplicates with a counter.
+ * Thread-safe, as names are allocated by concurrent extraction workers.
+ */
+public class UniqueFileNames {
+
+    // Map for handling duplicate file names
+    private final Map<String, Integer> fileNameCounters = new HashMap<>();
+    private final Set<String> usedFileNames = new HashSet<>();
+
+    /**
+     * Generate a unique file name to avoid overwriting existing files.
+     */
+    public synchronized String allocate(String fileName) {
+        Integer counter = fileNameCounters.get(fileName);
+        String uniqueFileName = fileName;
+
+        if (counter == null) {
+            counter = 1;
+        }
+        while (!usedFileNames.add(uniqueFileName)) {
+            // Insert counter before file extension, never in a directory of a relative path
+            uniqueFileName = fileName.replaceFirst("(\\.[^./]*)?$", "_" + counter + "$1");
+            counter++;
+        }
+        fileNameCounters.put(fileName, counter);
+        return uniqueFileName;
+    }
+
+    /**
+     * Mark a file name as already taken, e.g. by a previous run of a resumed export.
+     */
+    public synchronized void reserve(String fileName) {
+        usedFileNames.add(fileName);
+    }
+}
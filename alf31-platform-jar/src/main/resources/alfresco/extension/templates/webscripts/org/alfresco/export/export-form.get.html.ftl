@@ -123,6 +123,98 @@
                 <small>Nombre maximum de documents à exporter (entre 1 et 100 000).</small>
             </div>
 
+            <!-- Champ 4 : Mode de sortie -->
+            <div class="form-group">
+                <label for="format">Mode de sortie :</label>
+                <select id="format" name="format">
+                    <option value="">Export sur le serveur</option>
+                    <option value="zip">Téléchargement ZIP</option>
+                    <option value="tar">Téléchargement TAR</option>
+                </select>
+                <small>Les archives ZIP et TAR sont transmises directement au navigateur, sans écriture sur le serveur.</small>
+            </div>
+
+            <!-- Champ 4 bis : Organisation des fichiers -->
+            <div class="form-group">
+                <label for="layout">Organisation des fichiers :</label>
+                <select id="layout" name="layout">
+                    <option value="">Par défaut (configuration du serveur)</option>
+                    <option value="flat">Tous dans le dossier d'export</option>
+                    <option value="mirror">Arborescence des dossiers du référentiel</option>
+                    <option value="hashed">Sous-dossiers répartis par empreinte</option>
+                </select>
+                <small>L'arborescence reproduit les dossiers d'origine ; la répartition par empreinte limite le nombre de fichiers par dossier pour les très gros exports.</small>
+            </div>
+
+            <!-- Champ 4 ter : Compression des fichiers -->
+            <div class="form-group">
+                <label for="compression">Compression des fichiers :</label>
+                <select id="compression" name="compression">
+                    <option value="">Par défaut (configuration du serveur)</option>
+                    <option value="none">Aucune</option>
+                    <option value="gzip">Gzip, sauf les formats déjà compressés</option>
+                    <option value="all">Gzip pour tous les fichiers</option>
+                </select>
+                <small>Les fichiers compressés reçoivent l'extension .gz. Les images, PDF, archives et documents Office récents sont déjà compressés et restent tels quels en mode Gzip.</small>
+            </div>
+
+            <!-- Champ 4 quater : Cohérence de la recherche -->
+            <div class="form-group">
+                <label for="consistency">Cohérence de la recherche :</label>
+                <select id="consistency" name="consistency">
+                    <option value="">Par défaut (configuration du serveur)</option>
+                    <option value="TRANSACTIONAL_IF_POSSIBLE">Base de données si possible</option>
+                    <option value="EVENTUAL">Index uniquement</option>
+                </select>
+                <small>L'index seul est plus rapide pour les gros exports, mais peut ignorer les documents modifiés depuis sa dernière mise à jour.</small>
+            </div>
+
+            <!-- Champ 5 : Reprise d'un export interrompu -->
+            <div class="form-group">
+                <label for="resume">Reprendre un export :</label>
+                <input type="text" id="resume" name="resume" placeholder="Export_AAAAMMJJ_HHmmss" />
+                <small>Nom du dossier d'un export interrompu. Ses paramètres d'origine sont repris et les documents déjà exportés ne sont pas recopiés.</small>
+            </div>
+
+            <!-- Champ 5 bis : Vérification d'un export -->
+            <div class="form-group">
+                <label for="verify">Vérifier un export :</label>
+                <input type="text" id="verify" name="verify" placeholder="Export_AAAAMMJJ_HHmmss" />
+                <small>Nom du dossier d'un export terminé. Chaque fichier est comparé à la taille et à l'empreinte SHA-256 de _checksums.jsonl ; les écarts sont listés dans _verify.tsv.</small>
+            </div>
+
+            <!-- Champ 6 : Export incrémental -->
+            <div class="form-group">
+                <label>
+                    <input type="checkbox" name="incremental" value="true" />
+                    Export incrémental
+                </label>
+                <small>N'exporte que les documents créés ou modifiés depuis le dernier export incrémental de la même recherche.</small>
+                <label>
+                    <input type="checkbox" name="deletions" value="true" />
+                    Inclure la liste des suppressions
+                </label>
+                <small>Ajoute un fichier _deleted.tsv listant les documents supprimés depuis le dernier export incrémental.</small>
+            </div>
+
+            <!-- Champ 7 : Export distribué -->
+            <div class="form-group">
+                <label>
+                    <input type="checkbox" name="distributed" value="true" />
+                    Export distribué sur le cluster
+                </label>
+                <small>Répartit l'export de tous les documents correspondants entre les serveurs du cluster, sans limite de nombre. Chaque serveur écrit ses fragments dans le dossier daté ; un fichier _manifest.tsv les récapitule à la fin. L'export reste en cours dans le suivi jusqu'à l'écriture de ce fichier, et échoue si un fragment échoue trois fois.</small>
+            </div>
+
+            <!-- Champ 8 : Estimation seule -->
+            <div class="form-group">
+                <label>
+                    <input type="checkbox" name="plan" value="true" />
+                    Estimer seulement, sans exporter
+                </label>
+                <small>Calcule en arrière-plan le nombre de documents, leur volume, la durée prévue et l'espace libre sur le serveur, sans écrire aucun fichier ; le résultat apparaît dans le suivi de l'estimation.</small>
+            </div>
+
             <div class="info" style="margin-bottom: 20px; padding: 10px; background-color: #d1ecf1; color: #0c5460; border-radius: 4px; font-size: 14px;">
                 <strong>Note :</strong> Le chemin d'export est configuré par l'administrateur système dans alfresco-global.properties.
             </div>
@@ -0,0 +1,2 @@
+<#import "export-job.lib.ftl" as exportLib/>
+<@exportLib.jobJSON job=job/>
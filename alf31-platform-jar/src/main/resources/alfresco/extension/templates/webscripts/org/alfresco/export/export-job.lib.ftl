@@ -0,0 +1,51 @@
+<#macro jobJSON job>
+    {
+        "jobId": "${job.jobId}",
+        "status": "${job.status}",
+        "user": "${job.user?json_string}",
+        "maxDocs": ${job.maxDocs?c},
+        "keywords": "${job.keywords?json_string}",
+        "mimetype": "${job.mimetype?json_string}",
+        "extractedCount": ${job.extractedCount?c},
+        "bytesWritten": ${job.bytesWritten?c},
+        "skipCount": ${job.skipCount?c},
+        "cursor": ${job.cursor?c},
+        "exportPath": "${job.exportPath?json_string}",
+        "incremental": ${job.incremental?c},
+        "distributed": ${job.distributed?c},
+        "layout": "${job.layout?json_string}",
+        "compression": "${job.compression?json_string}",
+        "consistency": "${job.consistency?json_string}",
+        "shardIndex": ${job.shardIndex?c},
+        "verifyFolder": "${job.verifyFolder?json_string}",
+        "dryRun": ${job.dryRun?c},<#if job.plan??>
+        "plan": <@planJSON plan=job.plan/>,</#if>
+        "modifiedSince": ${job.modifiedSince?c},
+        "message": "${job.message?json_string}",
+        "createdAt": ${job.createdAt?c},
+        "startedAt": ${job.startedAt?c},
+        "finishedAt": ${job.finishedAt?c},
+        "duration": ${job.duration?c},
+        "etaSeconds": ${job.etaSeconds?c}
+    }
+</#macro>
+<#macro planJSON plan>{
+            "matchCount": ${plan.matchCount?c},
+            "plannedCount": ${plan.plannedCount?c},
+            "maxDocs": ${plan.maxDocs?c},
+            "estimatedBytes": ${plan.estimatedBytes?c},
+            "averageSize": ${plan.averageSize?c},
+            "estimateExact": ${plan.estimateExact?c},
+            "scannedCount": ${plan.scannedCount?c},
+            "contentlessCount": ${plan.contentlessCount?c},
+            "etaSeconds": ${plan.etaSeconds?c},
+            "freeBytes": ${plan.freeBytes?c},
+            "fitsOnVolume": ${plan.fitsOnVolume?c},
+            "mimetypesSampled": ${plan.mimetypesSampled?c},
+            "mimetypes": [<#list plan.mimetypes as facet>
+                {
+                    "mimetype": "${facet.mimetype?json_string}",
+                    "count": ${facet.count?c}
+                }<#if facet_has_next>,</#if></#list>
+            ]
+        }</#macro>
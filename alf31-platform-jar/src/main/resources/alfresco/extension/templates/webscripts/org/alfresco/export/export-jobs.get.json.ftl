@@ -0,0 +1,8 @@
+<#import "export-job.lib.ftl" as exportLib/>
+{
+    "jobs": [
+<#list jobs as job>
+    <@exportLib.jobJSON job=job/><#if job_has_next>,</#if>
+</#list>
+    ]
+}
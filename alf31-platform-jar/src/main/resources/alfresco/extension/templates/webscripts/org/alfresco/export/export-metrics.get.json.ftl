@@ -0,0 +1,24 @@
+{
+    "exportsStarted": ${metrics.exportsStarted?c},
+    "activeExports": ${metrics.activeExports?c},
+    "documentsExtracted": ${metrics.documentsExtracted?c},
+    "documentsSkipped": ${metrics.documentsSkipped?c},
+    "bytesCopied": ${metrics.bytesCopied?c},
+    "docsPerSecond": ${metrics.docsPerSecond?c},
+    "megabytesPerSecond": ${metrics.megabytesPerSecond?c},
+    "copyMegabytesPerSecondPerThread": ${metrics.copyMegabytesPerSecondPerThread?c},
+    "phases": [
+<#list metrics.phases as phase>
+        {
+            "name": "${phase.name}",
+            "count": ${phase.count?c},
+            "totalMillis": ${phase.totalMillis?c},
+            "meanMillis": ${phase.meanMillis?c},
+            "p50Millis": ${phase.p50Millis?c},
+            "p95Millis": ${phase.p95Millis?c},
+            "p99Millis": ${phase.p99Millis?c},
+            "maxMillis": ${phase.maxMillis?c}
+        }<#if phase_has_next>,</#if>
+</#list>
+    ]
+}
@@ -111,14 +111,18 @@
         <#if success?? && success>
             <div class="status-box status-completed">
                 <div class="success-icon">✓</div>
-                <h2>Export terminé avec succès</h2>
-                <p>${message!"L'export s'est terminé avec succès."}</p>
+                <h2><#if dryRun>Estimation lancée<#else>Export lancé</#if></h2>
+                <p>${message!"L'export a été mis en file d'attente."}</p>
             </div>
 
             <div class="info-grid">
+                <div class="info-item-full">
+                    <div class="info-label">Identifiant de l'export</div>
+                    <div class="info-value" style="font-size: 14px; word-break: break-all;">${jobId}</div>
+                </div>
                 <div class="info-item">
-                    <div class="info-label">Documents exportés</div>
-                    <div class="info-value">${extractedCount?c}</div>
+                    <div class="info-label">Statut</div>
+                    <div class="info-value">${status}</div>
                 </div>
                 <div class="info-item">
                     <div class="info-label">Maximum autorisé</div>
@@ -136,15 +140,11 @@
                     <div class="info-value" style="font-size: 14px;">${mimetype}</div>
                 </div>
                 </#if>
-                <#if exportPath?? && exportPath?has_content>
-                <div class="info-item-full">
-                    <div class="info-label">Chemin d'extraction</div>
-                    <div class="info-value" style="font-size: 14px; word-break: break-all;">${exportPath}</div>
-                </div>
-                </#if>
             </div>
 
             <div class="actions">
+                <a href="/alfresco/s/api/export/jobs/${jobId}" class="btn btn-primary"><#if dryRun>Voir l'estimation<#else>Suivre l'export</#if></a>
+                <a href="/alfresco/s/api/export/jobs" class="btn btn-primary">Tous les exports</a>
                 <a href="/alfresco/s/api/export/form" class="btn btn-primary">Nouvel export</a>
             </div>
 
@@ -0,0 +1,7 @@
+{
+    "success": ${success?string("true", "false")},
+    "message": "${message?json_string}"<#if jobId??>,
+    "jobId": "${jobId}",
+    "status": "${status}",
+    "dryRun": ${dryRun?c}</#if>
+}
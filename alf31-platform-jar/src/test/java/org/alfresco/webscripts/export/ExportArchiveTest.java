@@ -0,0 +1,150 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.Zip64ExtendedInformationExtraField;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipShort;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExportArchiveTest {
+
+    private static final ZipShort ZIP64 = new Zip64ExtendedInformationExtraField().getHeaderId();
+
+    private Path archiveFile;
+
+    @Before
+    public void setUp() throws IOException {
+        archiveFile = Files.createTempFile("export-archive-test-", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(archiveFile);
+    }
+
+    @Test
+    public void zipEntriesDoNotTrustTheMetadataSize() throws IOException {
+        OutputStream out = Files.newOutputStream(archiveFile);
+        try {
+            ExportArchive archive = new ExportArchive(ExportArchive.FORMAT_ZIP, out);
+            // Metadata smaller, then larger than the content, as left by a rewritten or truncated binary
+            assertEquals(18, archive.addEntry("rapport.txt", reader("contenu du rapport", 3)));
+            assertEquals(8, archive.addEntry("note.txt", reader("une note", 100)));
+            archive.finish();
+        } finally {
+            out.close();
+        }
+
+        ZipFile zip = new ZipFile(archiveFile.toFile());
+        try {
+            assertEquals("contenu du rapport", read(zip, "rapport.txt"));
+            assertEquals(18, zip.getEntry("rapport.txt").getSize());
+            assertEquals("une note", read(zip, "note.txt"));
+            assertNull(zip.getEntry("note.txt").getExtraField(ZIP64));
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+    }
+
+    @Test
+    public void largeZipEntriesGetZip64Sizes() throws IOException {
+        OutputStream out = Files.newOutputStream(archiveFile);
+        try {
+            ExportArchive archive = new ExportArchive(ExportArchive.FORMAT_ZIP, out);
+            archive.addEntry("petit.txt", reader("petit", 5));
+            // Only the metadata is large: the entry must be able to hold more than 4 GB before its data is copied
+            archive.addEntry("video.mp4", reader("grand", 3L * 1024 * 1024 * 1024));
+            archive.addEntry("apres.txt", reader("apres", 5));
+            archive.finish();
+        } finally {
+            out.close();
+        }
+
+        ZipFile zip = new ZipFile(archiveFile.toFile());
+        try {
+            ZipArchiveEntry large = zip.getEntry("video.mp4");
+            assertNotNull(large.getExtraField(ZIP64));
+            assertEquals("grand", read(zip, "video.mp4"));
+            assertNull(zip.getEntry("petit.txt").getExtraField(ZIP64));
+            assertNull(zip.getEntry("apres.txt").getExtraField(ZIP64));
+            assertEquals("apres", read(zip, "apres.txt"));
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+    }
+
+    @Test
+    public void tarEntriesTakeTheMetadataSize() throws IOException {
+        OutputStream out = Files.newOutputStream(archiveFile);
+        try {
+            ExportArchive archive = new ExportArchive(ExportArchive.FORMAT_TAR, out);
+            assertEquals(8, archive.addEntry("dossier/note.txt", reader("une note", 8)));
+            archive.finish();
+        } finally {
+            out.close();
+        }
+
+        TarArchiveInputStream tar = new TarArchiveInputStream(Files.newInputStream(archiveFile), "UTF-8");
+        try {
+            ArchiveEntry entry = tar.getNextEntry();
+            assertEquals("dossier/note.txt", entry.getName());
+            assertEquals(8, entry.getSize());
+            assertEquals("une note", IOUtils.toString(tar, "UTF-8"));
+            assertNull(tar.getNextEntry());
+        } finally {
+            tar.close();
+        }
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        InputStream in = zip.getInputStream(zip.getEntry(name));
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reader of a content whose metadata reports {@code size}, which may not be its actual length.
+     */
+    private static ContentReader reader(final String content, final long size) {
+        return (ContentReader) Proxy.newProxyInstance(ExportArchiveTest.class.getClassLoader(),
+            new Class<?>[] {ContentReader.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getSize".equals(method.getName())) {
+                        return size;
+                    }
+                    if ("getLastModified".equals(method.getName())) {
+                        return 1760000000000L;
+                    }
+                    if ("getContentInputStream".equals(method.getName())) {
+                        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
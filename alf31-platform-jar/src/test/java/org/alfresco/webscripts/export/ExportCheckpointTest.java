@@ -0,0 +1,111 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExportCheckpointTest {
+
+    private Path exportDir;
+
+    @Before
+    public void setUp() throws IOException {
+        exportDir = Files.createTempDirectory("export-checkpoint-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(exportDir.toFile());
+    }
+
+    @Test
+    public void readsRecordedEntries() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        checkpoint.recordExported("workspace://SpacesStore/a", "Rapport annuel.pdf", "Rapport annuel.pdf");
+        checkpoint.recordExported("workspace://SpacesStore/b", "tab\there", "tab_1");
+        checkpoint.save(42, 0, 2, 100, false);
+        checkpoint.close();
+
+        List<ExportCheckpoint.Entry> entries = ExportCheckpoint.readEntries(exportDir);
+        assertEquals(2, entries.size());
+        assertEquals("workspace://SpacesStore/a", entries.get(0).getNodeRef());
+        assertEquals("Rapport annuel.pdf", entries.get(0).getName());
+        assertEquals("tab\there", entries.get(1).getName());
+        assertEquals("tab_1", entries.get(1).getFileName());
+        assertEquals(42, ExportCheckpoint.read(exportDir).getCursor());
+    }
+
+    @Test
+    public void ignoresLineCutBeforeItsLastField() throws IOException {
+        writeEntries("workspace://SpacesStore/a\ta.pdf\ta.pdf\nworkspace://SpacesStore/b\tb.p");
+
+        List<ExportCheckpoint.Entry> entries = ExportCheckpoint.readEntries(exportDir);
+        assertEquals(1, entries.size());
+        assertEquals("a.pdf", entries.get(0).getFileName());
+    }
+
+    @Test
+    public void ignoresLineCutWithinItsLastField() throws IOException {
+        writeEntries("workspace://SpacesStore/a\ta.pdf\ta.pdf\nworkspace://SpacesStore/b\tb.pdf\tb_1.p");
+
+        List<ExportCheckpoint.Entry> entries = ExportCheckpoint.readEntries(exportDir);
+        assertEquals(1, entries.size());
+        assertEquals("workspace://SpacesStore/a", entries.get(0).getNodeRef());
+    }
+
+    @Test
+    public void resumeAppendsAfterPartialLine() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        checkpoint.recordExported("workspace://SpacesStore/a", "a.pdf", "a.pdf");
+        checkpoint.save(1, 0, 1, 10, false);
+        checkpoint.close();
+        Files.write(exportDir.resolve(ExportCheckpoint.ENTRIES_FILE),
+            "workspace://SpacesStore/b\tb.pdf\tb".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        checkpoint = ExportCheckpoint.read(exportDir);
+        List<ExportCheckpoint.Entry> entries = checkpoint.resume();
+        assertEquals(1, entries.size());
+        assertTrue(checkpoint.isExported("workspace://SpacesStore/a"));
+        assertFalse(checkpoint.isExported("workspace://SpacesStore/b"));
+        checkpoint.recordExported("workspace://SpacesStore/b", "b.pdf", "b.pdf");
+        checkpoint.save(2, 0, 2, 20, true);
+        checkpoint.close();
+
+        entries = ExportCheckpoint.readEntries(exportDir);
+        assertEquals(2, entries.size());
+        assertEquals("workspace://SpacesStore/b", entries.get(1).getNodeRef());
+        assertEquals("b.pdf", entries.get(1).getFileName());
+        assertTrue(ExportCheckpoint.read(exportDir).isCompleted());
+    }
+
+    @Test(expected = IOException.class)
+    public void directoryIsWrittenByOneRunAtATime() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        try {
+            ExportCheckpoint.read(exportDir).resume();
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    private ExportCheckpoint createCheckpoint() throws IOException {
+        ExportJob job = new ExportJob("admin", null, 100, "rapport", "application/pdf");
+        return ExportCheckpoint.create(exportDir, job, ExportSearch.PAGINATION_KEYSET, 50);
+    }
+
+    private void writeEntries(String content) throws IOException {
+        Files.write(exportDir.resolve(ExportCheckpoint.ENTRIES_FILE), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
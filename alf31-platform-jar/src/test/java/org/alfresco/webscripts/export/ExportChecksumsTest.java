@@ -0,0 +1,150 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ExportChecksumsTest {
+
+    private Path exportDir;
+
+    @Before
+    public void setUp() throws IOException {
+        exportDir = Files.createTempDirectory("export-checksums-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(exportDir.toFile());
+    }
+
+    @Test
+    public void resumeDropsDocumentsBeyondTheCheckpoint() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        ExportChecksums checksums = new ExportChecksums(exportDir, false, false);
+        record(checksums, checkpoint, "a");
+        record(checksums, checkpoint, "b");
+        checkpoint.save(2, 0, 2, 20, false);
+        // Flushed by the writer's full buffer, then the export stops before the next checkpoint
+        record(checksums, null, "c");
+        checksums.flush();
+        checksums.close();
+        checkpoint.close();
+        Files.write(exportDir.resolve(ExportChecksums.MANIFEST_FILE),
+            "{\"nodeRef\":\"workspace://Spa".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        ExportCheckpoint resumed = ExportCheckpoint.read(exportDir);
+        try {
+            resumed.resume();
+            assertEquals(2, ExportChecksums.retainExported(exportDir, resumed));
+            assertEquals(Arrays.asList("workspace://SpacesStore/a", "workspace://SpacesStore/b"), manifestNodeRefs());
+
+            // The resumed export lists the document again, once
+            checksums = new ExportChecksums(exportDir, false, false);
+            record(checksums, resumed, "c");
+            checksums.close();
+            assertEquals(Arrays.asList("workspace://SpacesStore/a", "workspace://SpacesStore/b",
+                "workspace://SpacesStore/c"), manifestNodeRefs());
+        } finally {
+            resumed.close();
+        }
+        assertFalse(Files.exists(exportDir.resolve(ExportChecksums.MANIFEST_TMP_FILE)));
+    }
+
+    @Test
+    public void resumeKeepsOneLinePerDocument() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        ExportChecksums checksums = new ExportChecksums(exportDir, false, false);
+        record(checksums, checkpoint, "a");
+        record(checksums, null, "a");
+        checkpoint.save(1, 0, 1, 10, false);
+        checksums.close();
+        checkpoint.close();
+
+        ExportCheckpoint resumed = ExportCheckpoint.read(exportDir);
+        try {
+            resumed.resume();
+            assertEquals(1, ExportChecksums.retainExported(exportDir, resumed));
+        } finally {
+            resumed.close();
+        }
+        assertEquals(Arrays.asList("workspace://SpacesStore/a"), manifestNodeRefs());
+    }
+
+    @Test
+    public void resumeLeavesAMatchingManifestUntouched() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        ExportChecksums checksums = new ExportChecksums(exportDir, false, false);
+        record(checksums, checkpoint, "a");
+        record(checksums, checkpoint, "b");
+        checkpoint.save(2, 0, 2, 20, false);
+        checksums.close();
+        checkpoint.close();
+        byte[] manifest = Files.readAllBytes(exportDir.resolve(ExportChecksums.MANIFEST_FILE));
+
+        ExportCheckpoint resumed = ExportCheckpoint.read(exportDir);
+        try {
+            resumed.resume();
+            assertEquals(2, ExportChecksums.retainExported(exportDir, resumed));
+        } finally {
+            resumed.close();
+        }
+        assertArrayEquals(manifest, Files.readAllBytes(exportDir.resolve(ExportChecksums.MANIFEST_FILE)));
+        assertFalse(Files.exists(exportDir.resolve(ExportChecksums.MANIFEST_TMP_FILE)));
+    }
+
+    @Test
+    public void resumeWithoutManifest() throws IOException {
+        ExportCheckpoint checkpoint = createCheckpoint();
+        checkpoint.recordExported("workspace://SpacesStore/a", "a.txt", "a.txt");
+        checkpoint.save(1, 0, 1, 10, false);
+        checkpoint.close();
+
+        ExportCheckpoint resumed = ExportCheckpoint.read(exportDir);
+        try {
+            resumed.resume();
+            assertEquals(0, ExportChecksums.retainExported(exportDir, resumed));
+        } finally {
+            resumed.close();
+        }
+        assertFalse(Files.exists(exportDir.resolve(ExportChecksums.MANIFEST_FILE)));
+    }
+
+    /**
+     * Record a document in the manifest, then in the checkpoint unless null, as the extraction workers do.
+     */
+    private void record(ExportChecksums checksums, ExportCheckpoint checkpoint, String id) throws IOException {
+        String nodeRef = "workspace://SpacesStore/" + id;
+        checksums.record(nodeRef, "/Espace/" + id + ".txt", id + ".txt", "text/plain", 10, null, "store://" + id, null);
+        if (checkpoint != null) {
+            checkpoint.recordExported(nodeRef, id + ".txt", id + ".txt");
+        }
+    }
+
+    private List<String> manifestNodeRefs() throws IOException {
+        List<String> nodeRefs = new ArrayList<>();
+        for (String line : Files.readAllLines(exportDir.resolve(ExportChecksums.MANIFEST_FILE), StandardCharsets.UTF_8)) {
+            nodeRefs.add(line.replaceFirst("^\\{\"nodeRef\":\"([^\"]*)\".*$", "$1"));
+        }
+        return nodeRefs;
+    }
+
+    private ExportCheckpoint createCheckpoint() throws IOException {
+        ExportJob job = new ExportJob("admin", null, 100, "", "");
+        return ExportCheckpoint.create(exportDir, job, ExportSearch.PAGINATION_KEYSET, 50);
+    }
+}
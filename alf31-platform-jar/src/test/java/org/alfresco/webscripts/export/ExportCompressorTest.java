@@ -0,0 +1,143 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExportCompressorTest {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private ExportCompressor compressor;
+    private Path workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        compressor = new ExportCompressor();
+        compressor.setThreads(4);
+        compressor.setBlockSize(BLOCK_SIZE);
+        compressor.setSkipMimetypes("image/jpeg, video/*");
+        compressor.init();
+        workDir = Files.createTempDirectory("export-compressor-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        compressor.destroy();
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    @Test
+    public void emptyContent() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void contentShorterThanABlock() throws Exception {
+        assertRoundTrip(textContent(1000));
+    }
+
+    @Test
+    public void contentOfExactlyOneBlock() throws Exception {
+        assertRoundTrip(textContent(BLOCK_SIZE));
+    }
+
+    @Test
+    public void contentOfExactlySeveralBlocks() throws Exception {
+        assertRoundTrip(textContent(4 * BLOCK_SIZE));
+    }
+
+    @Test
+    public void contentOfManyBlocks() throws Exception {
+        // More blocks than are kept in flight
+        assertRoundTrip(textContent(20 * BLOCK_SIZE + 123));
+    }
+
+    @Test
+    public void incompressibleContent() throws Exception {
+        byte[] content = new byte[3 * BLOCK_SIZE + 1];
+        new Random(42).nextBytes(content);
+        assertRoundTrip(content);
+    }
+
+    @Test
+    public void digestAndSizeAreThoseOfTheWrittenFile() throws Exception {
+        Path target = workDir.resolve("document.txt.gz");
+        MessageDigest digest = MessageDigest.getInstance(ExportChecksums.ALGORITHM);
+        long size = compressor.compress(reader(textContent(5 * BLOCK_SIZE)), target, digest);
+
+        byte[] written = Files.readAllBytes(target);
+        assertEquals(written.length, size);
+        assertArrayEquals(MessageDigest.getInstance(ExportChecksums.ALGORITHM).digest(written), digest.digest());
+    }
+
+    @Test
+    public void skipsCompressedMimetypesInGzipMode() {
+        assertTrue(compressor.isCompressed(ExportCompressor.MODE_GZIP, "application/pdf"));
+        assertFalse(compressor.isCompressed(ExportCompressor.MODE_GZIP, "image/jpeg"));
+        assertFalse(compressor.isCompressed(ExportCompressor.MODE_GZIP, "video/mp4"));
+        assertTrue(compressor.isCompressed(ExportCompressor.MODE_ALL, "video/mp4"));
+        assertFalse(compressor.isCompressed(ExportCompressor.MODE_NONE, "application/pdf"));
+    }
+
+    private void assertRoundTrip(byte[] content) throws Exception {
+        Path target = workDir.resolve("document.gz");
+        compressor.compress(reader(content), target, null);
+
+        InputStream in = new GZIPInputStream(Files.newInputStream(target));
+        try {
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Repetitive text, so that blocks refer back to the previous one through the dictionary.
+     */
+    private static byte[] textContent(int size) {
+        byte[] line = "Export de documents Alfresco, ligne de contenu répétée.\n".getBytes();
+        byte[] content = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            content[i] = i % 97 == 0 ? (byte) random.nextInt() : line[i % line.length];
+        }
+        return content;
+    }
+
+    private static ContentReader reader(final byte[] content) {
+        return (ContentReader) Proxy.newProxyInstance(ExportCompressorTest.class.getClassLoader(),
+            new Class<?>[] {ContentReader.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getContentInputStream".equals(method.getName())) {
+                        return new ByteArrayInputStream(content);
+                    }
+                    if ("getSize".equals(method.getName())) {
+                        return (long) content.length;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,130 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExportDeduplicationTest {
+
+    private static final String CONTENT_URL = "store://2026/10/17/12/00/0b1c.bin";
+
+    private Path exportDir;
+
+    @Before
+    public void setUp() throws IOException {
+        exportDir = Files.createTempDirectory("export-dedup-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(exportDir.toFile());
+    }
+
+    @Test
+    public void disabledModeNeverFindsAnOriginal() {
+        ExportDeduplication dedup = new ExportDeduplication(exportDir, "unknown");
+        assertEquals(ExportDeduplication.MODE_NONE, dedup.getMode());
+        assertFalse(dedup.isEnabled());
+
+        dedup.recordOriginal(CONTENT_URL, "rapport.pdf", 10);
+        assertNull(dedup.findOriginal(CONTENT_URL));
+    }
+
+    @Test
+    public void firstRecordedFileIsTheOriginal() {
+        ExportDeduplication dedup = new ExportDeduplication(exportDir, ExportDeduplication.MODE_LINK);
+        dedup.recordOriginal(CONTENT_URL, "rapport.pdf", 10);
+        dedup.recordOriginal(CONTENT_URL, "rapport_1.pdf", 10);
+        dedup.recordOriginal(null, "sans-contenu.pdf", 0);
+
+        assertEquals("rapport.pdf", dedup.findOriginal(CONTENT_URL).getFileName());
+        assertNull(dedup.findOriginal(null));
+        assertNull(dedup.findOriginal("store://other.bin"));
+    }
+
+    @Test
+    public void duplicateIsHardLinkedToTheOriginal() throws IOException {
+        ExportDeduplication dedup = new ExportDeduplication(exportDir, ExportDeduplication.MODE_LINK);
+        ExportDeduplication.Original original = writeOriginal(dedup, "rapport.pdf", "contenu");
+        // Left by an interrupted run
+        write("rapport_1.pdf", "ancien");
+
+        assertTrue(dedup.writeDuplicate(original, "rapport_1.pdf", "workspace://SpacesStore/b"));
+        assertTrue(Files.isSameFile(exportDir.resolve("rapport.pdf"), exportDir.resolve("rapport_1.pdf")));
+        assertEquals("contenu", read("rapport_1.pdf"));
+        assertEquals(1, dedup.getDuplicateCount());
+        assertEquals(7, dedup.getSavedBytes());
+    }
+
+    @Test
+    public void failedLinkFallsBackToCopiesForTheRestOfTheExport() throws IOException {
+        ExportDeduplication dedup = new ExportDeduplication(exportDir, ExportDeduplication.MODE_LINK);
+        ExportDeduplication.Original original = writeOriginal(dedup, "rapport.pdf", "contenu");
+        // A target that cannot be replaced by a link
+        Files.createDirectories(exportDir.resolve("rapport_1.pdf").resolve("occupied"));
+
+        assertFalse(dedup.writeDuplicate(original, "rapport_1.pdf", "workspace://SpacesStore/b"));
+        assertFalse(dedup.writeDuplicate(original, "rapport_2.pdf", "workspace://SpacesStore/c"));
+        assertFalse(Files.exists(exportDir.resolve("rapport_2.pdf")));
+        assertEquals(0, dedup.getDuplicateCount());
+        assertEquals(0, dedup.getSavedBytes());
+    }
+
+    @Test
+    public void missingOriginalIsCopiedWithoutGivingUpLinks() throws IOException {
+        ExportDeduplication dedup = new ExportDeduplication(exportDir, ExportDeduplication.MODE_LINK);
+        ExportDeduplication.Original original = writeOriginal(dedup, "rapport.pdf", "contenu");
+        Files.move(exportDir.resolve("rapport.pdf"), exportDir.resolve("moved.pdf"));
+
+        assertFalse(dedup.writeDuplicate(original, "rapport_1.pdf", "workspace://SpacesStore/b"));
+
+        ExportDeduplication.Original other = writeOriginal(dedup, "note.txt", "note");
+        assertTrue(dedup.writeDuplicate(other, "note_1.txt", "workspace://SpacesStore/d"));
+        assertEquals(1, dedup.getDuplicateCount());
+    }
+
+    @Test
+    public void manifestModeListsDuplicatesWithoutWritingThem() throws IOException {
+        ExportDeduplication dedup = new ExportDeduplication(exportDir, ExportDeduplication.MODE_MANIFEST);
+        assertTrue(dedup.isManifest());
+        ExportDeduplication.Original original = writeOriginal(dedup, "rapport.pdf", "contenu");
+
+        assertTrue(dedup.writeDuplicate(original, "rapport_1.pdf", "workspace://SpacesStore/b"));
+        assertTrue(dedup.writeDuplicate(original, "rapport_2.pdf", "workspace://SpacesStore/c"));
+        dedup.close();
+
+        assertFalse(Files.exists(exportDir.resolve("rapport_1.pdf")));
+        assertEquals(Arrays.asList("rapport_1.pdf\trapport.pdf\tworkspace://SpacesStore/b",
+                "rapport_2.pdf\trapport.pdf\tworkspace://SpacesStore/c"),
+            Files.readAllLines(exportDir.resolve(ExportDeduplication.MANIFEST_FILE), StandardCharsets.UTF_8));
+        assertEquals(2, dedup.getDuplicateCount());
+        assertEquals(14, dedup.getSavedBytes());
+    }
+
+    private ExportDeduplication.Original writeOriginal(ExportDeduplication dedup, String fileName, String content)
+            throws IOException {
+        write(fileName, content);
+        dedup.recordOriginal(CONTENT_URL + fileName, fileName, content.length());
+        return dedup.findOriginal(CONTENT_URL + fileName);
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        Files.write(exportDir.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String fileName) throws IOException {
+        return new String(Files.readAllBytes(exportDir.resolve(fileName)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,195 @@
+package org.alfresco.webscripts.export;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportJobServiceTest {
+
+    private ExportJobService service;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        service.destroy();
+    }
+
+    @Test
+    public void usersAreServedRoundRobin() throws Exception {
+        createService(1, 10);
+        ExportJob blocking = submit("alice", "a0", true);
+        waitForState(blocking, ExportJob.State.RUNNING);
+
+        List<ExportJob> jobs = new ArrayList<>();
+        jobs.add(submit("alice", "a1", false));
+        jobs.add(submit("alice", "a2", false));
+        jobs.add(submit("alice", "a3", false));
+        jobs.add(submit("bob", "b1", false));
+        jobs.add(submit("bob", "b2", false));
+        jobs.add(submit("carol", "c1", false));
+        release.countDown();
+        for (ExportJob job : jobs) {
+            waitForState(job, ExportJob.State.COMPLETED);
+        }
+
+        assertEquals(Arrays.asList("a0", "a1", "b1", "c1", "a2", "b2", "a3"), executed);
+    }
+
+    @Test
+    public void runsAtMostMaxConcurrentJobs() throws Exception {
+        createService(2, 10);
+        ExportJob first = submit("alice", "a1", true);
+        ExportJob second = submit("bob", "b1", true);
+        ExportJob third = submit("carol", "c1", false);
+        waitForState(first, ExportJob.State.RUNNING);
+        waitForState(second, ExportJob.State.RUNNING);
+
+        assertEquals(ExportJob.State.QUEUED, third.getState());
+        try {
+            service.acquireSlot();
+            fail("All slots are taken by jobs");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        release.countDown();
+        waitForState(third, ExportJob.State.COMPLETED);
+    }
+
+    @Test
+    public void rejectsJobsBeyondTheQueueSize() throws Exception {
+        createService(1, 1);
+        waitForState(submit("alice", "a1", true), ExportJob.State.RUNNING);
+        submit("alice", "a2", false);
+        try {
+            submit("bob", "b1", false);
+            fail("Queue is full");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void streamSlotHoldsBackQueuedJobsUntilReleased() throws Exception {
+        createService(1, 10);
+        service.acquireSlot();
+        ExportJob job = submit("alice", "a1", false);
+        Thread.sleep(100);
+        assertEquals(ExportJob.State.QUEUED, job.getState());
+
+        service.releaseSlot();
+        waitForState(job, ExportJob.State.COMPLETED);
+    }
+
+    @Test
+    public void failedArchiveStreamReleasesItsSlot() throws Exception {
+        createService(1, 10);
+        ExportWebScript webScript = new ExportWebScript();
+        webScript.setExportJobService(service);
+        webScript.setExportMetrics(new ExportMetrics());
+
+        try {
+            webScript.execute(request("format", "zip"), failingResponse());
+            fail("The stream fails");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+
+        // The slot is free again: a queued job runs and a stream may take it
+        waitForState(submit("alice", "a1", false), ExportJob.State.COMPLETED);
+        service.acquireSlot();
+        service.releaseSlot();
+    }
+
+    @Test
+    public void cancelledQueuedJobNeverRuns() throws Exception {
+        createService(1, 10);
+        waitForState(submit("alice", "a1", true), ExportJob.State.RUNNING);
+        ExportJob queued = submit("bob", "b1", false);
+
+        assertTrue(service.cancel(queued.getId()));
+        assertEquals(ExportJob.State.CANCELLED, queued.getState());
+        assertFalse(service.cancel(queued.getId()));
+        release.countDown();
+
+        ExportJob next = submit("carol", "c1", false);
+        waitForState(next, ExportJob.State.COMPLETED);
+        assertEquals(Arrays.asList("a1", "c1"), executed);
+    }
+
+    private void createService(int maxConcurrent, int queueSize) {
+        service = new ExportJobService();
+        service.setMaxConcurrent(maxConcurrent);
+        service.setQueueSize(queueSize);
+        service.init();
+    }
+
+    private ExportJob submit(String user, final String name, final boolean blocking) {
+        return service.submit(new ExportJob(user, null, 10, "", ""), new ExportJobService.ExportTask() {
+            @Override
+            public String execute(ExportJob job) throws Exception {
+                executed.add(name);
+                if (blocking) {
+                    release.await();
+                }
+                return name;
+            }
+        });
+    }
+
+    private static void waitForState(ExportJob job, ExportJob.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.getState() != state) {
+            if (System.nanoTime() > deadline) {
+                fail("Job " + job.getMessage() + " still " + job.getState() + ", expected " + state);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static WebScriptRequest request(final String name, final String value) {
+        return (WebScriptRequest) Proxy.newProxyInstance(ExportJobServiceTest.class.getClassLoader(),
+            new Class<?>[] {WebScriptRequest.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getParameter".equals(method.getName())) {
+                        return name.equals(args[0]) ? value : null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static WebScriptResponse failingResponse() {
+        return (WebScriptResponse) Proxy.newProxyInstance(ExportJobServiceTest.class.getClassLoader(),
+            new Class<?>[] {WebScriptResponse.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws IOException {
+                    if ("getOutputStream".equals(method.getName())) {
+                        throw new IOException("Connection reset");
+                    }
+                    return null;
+                }
+            });
+    }
+}
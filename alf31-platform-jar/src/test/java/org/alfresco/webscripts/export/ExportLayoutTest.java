@@ -0,0 +1,114 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExportLayoutTest {
+
+    private static final NodeRef NODE = new NodeRef("workspace://SpacesStore/4f6c2a9e-7b1d-4c3e-9a8f-0d2e5b6c7a81");
+
+    @Test
+    public void unknownModeFallsBackToFlat() {
+        ExportLayout layout = new ExportLayout("tree", 256, 2, null);
+        assertEquals(ExportLayout.LAYOUT_FLAT, layout.getMode());
+        assertEquals("rapport.pdf", layout.getRelativePath(NODE, "rapport.pdf"));
+        assertFalse(ExportLayout.isLayout("tree"));
+        assertTrue(ExportLayout.isLayout(ExportLayout.LAYOUT_HASHED));
+    }
+
+    @Test
+    public void hashedDirectoriesAreStableAcrossRuns() {
+        // A resumed export must find the files of the first run where it left them
+        assertEquals("82/1c/rapport.pdf", new ExportLayout("hashed", 256, 2, null).getRelativePath(NODE, "rapport.pdf"));
+        assertEquals("82/1c/rapport.pdf", new ExportLayout("hashed", 256, 2, null).getRelativePath(NODE, "rapport.pdf"));
+    }
+
+    @Test
+    public void hashedLevelsArePaddedToTheWidthOfTheFanout() {
+        assertEquals("31a/28c/2c4/rapport.pdf",
+            new ExportLayout("hashed", 1000, 3, null).getRelativePath(NODE, "rapport.pdf"));
+    }
+
+    @Test
+    public void hashedFanoutAndDepthAreClamped() {
+        assertEquals("0/rapport.pdf", new ExportLayout("hashed", 1, 0, null).getRelativePath(NODE, "rapport.pdf"));
+        assertEquals("c282/e51c/2dbc/6111/rapport.pdf",
+            new ExportLayout("hashed", 1000000, 9, null).getRelativePath(NODE, "rapport.pdf"));
+    }
+
+    @Test
+    public void hashedDirectoriesSpreadOverTheFanout() {
+        ExportLayout layout = new ExportLayout("hashed", 16, 1, null);
+        Set<String> directories = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String path = layout.getRelativePath(new NodeRef("workspace://SpacesStore/node-" + i), "f");
+            assertEquals(path, 1, path.indexOf('/'));
+            directories.add(path.substring(0, 1));
+        }
+        assertEquals(16, directories.size());
+    }
+
+    @Test
+    public void mirrorFollowsTheRepositoryFolders() {
+        ExportLayout layout = new ExportLayout("mirror", 256, 2,
+            resolver("Company Home/Sites/site/documentLibrary/Compte rendu v1.2"));
+        assertEquals("Company Home/Sites/site/documentLibrary/Compte rendu v1.2/rapport.pdf",
+            layout.getRelativePath(NODE, "rapport.pdf"));
+    }
+
+    @Test
+    public void mirrorDocumentOfTheStoreRootIsAtTheTop() {
+        ExportLayout layout = new ExportLayout("mirror", 256, 2, resolver(""));
+        assertEquals("rapport.pdf", layout.getRelativePath(NODE, "rapport.pdf"));
+    }
+
+    @Test
+    public void mirrorDotSegmentsCannotLeaveTheExport() {
+        assertEquals("Company Home/_/_/_/.../.cache/rapport.pdf",
+            new ExportLayout("mirror", 256, 2, resolver("Company Home/../././.../.cache"))
+                .getRelativePath(NODE, "rapport.pdf"));
+        assertEquals("_/rapport.pdf",
+            new ExportLayout("mirror", 256, 2, resolver("..")).getRelativePath(NODE, "rapport.pdf"));
+    }
+
+    @Test
+    public void createsParentDirectoriesExceptForFlat() throws IOException {
+        Path exportDir = Files.createTempDirectory("export-layout-test-");
+        try {
+            Path file = exportDir.resolve("82/1c/rapport.pdf");
+            new ExportLayout("flat", 256, 2, null).createParentDirectory(file);
+            assertFalse(Files.exists(file.getParent()));
+
+            ExportLayout layout = new ExportLayout("hashed", 256, 2, null);
+            layout.createParentDirectory(file);
+            assertTrue(Files.isDirectory(file.getParent()));
+
+            // Only created once per export
+            Files.delete(file.getParent());
+            layout.createParentDirectory(file);
+            assertFalse(Files.exists(file.getParent()));
+        } finally {
+            FileUtils.deleteDirectory(exportDir.toFile());
+        }
+    }
+
+    private static ExportPathResolver resolver(final String parentPath) {
+        return new ExportPathResolver(null, 16) {
+            @Override
+            public String getParentPath(NodeRef nodeRef) {
+                return parentPath;
+            }
+        };
+    }
+}
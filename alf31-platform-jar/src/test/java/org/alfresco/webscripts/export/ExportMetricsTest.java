@@ -0,0 +1,81 @@
+package org.alfresco.webscripts.export;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExportMetricsTest {
+
+    @Test
+    public void runRatesSpanOverlappingExports() throws InterruptedException {
+        ExportMetrics metrics = new ExportMetrics();
+        metrics.exportStarted();
+        metrics.exportStarted();
+        metrics.documentExtracted(1024 * 1024);
+        metrics.exportFinished();
+        assertEquals(1, metrics.getActiveExports());
+        Thread.sleep(20);
+        metrics.documentExtracted(1024 * 1024);
+        metrics.exportFinished();
+
+        assertEquals(0, metrics.getActiveExports());
+        assertEquals(2, metrics.getDocumentsExtracted());
+        double docsPerSecond = metrics.getDocsPerSecond();
+        assertTrue(String.valueOf(docsPerSecond), docsPerSecond > 0 && docsPerSecond <= 100);
+        // Finished: the rate no longer decays
+        Thread.sleep(20);
+        assertEquals(docsPerSecond, metrics.getDocsPerSecond(), 0);
+        assertEquals(docsPerSecond, metrics.getMegabytesPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void resetClearsTheRatesOfAFinishedExport() throws InterruptedException {
+        ExportMetrics metrics = new ExportMetrics();
+        metrics.exportStarted();
+        metrics.documentExtracted(4096);
+        metrics.documentSkipped();
+        metrics.record(ExportMetrics.PHASE_COPY, TimeUnit.MILLISECONDS.toNanos(3));
+        Thread.sleep(5);
+        metrics.exportFinished();
+        assertTrue(metrics.getDocsPerSecond() > 0);
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getExportsStarted());
+        assertEquals(0, metrics.getDocumentsExtracted());
+        assertEquals(0, metrics.getDocumentsSkipped());
+        assertEquals(0, metrics.getBytesCopied());
+        assertEquals(0, metrics.getDocsPerSecond(), 0);
+        assertEquals(0, metrics.getMegabytesPerSecond(), 0);
+        assertEquals(0, metrics.getCopyMegabytesPerSecondPerThread(), 0);
+        for (PhaseStatistics phase : metrics.getPhases()) {
+            assertEquals(phase.getName(), 0, phase.getCount());
+        }
+    }
+
+    @Test
+    public void resetDuringAnExportRestartsItsRates() throws InterruptedException {
+        ExportMetrics metrics = new ExportMetrics();
+        metrics.exportStarted();
+        for (int i = 0; i < 1000; i++) {
+            metrics.documentExtracted(100);
+        }
+
+        metrics.reset();
+        assertEquals(1, metrics.getActiveExports());
+        assertEquals(0, metrics.getDocsPerSecond(), 0);
+
+        metrics.documentExtracted(100);
+        Thread.sleep(20);
+        metrics.exportFinished();
+
+        // Only the document extracted since the reset, over the time since the reset
+        double docsPerSecond = metrics.getDocsPerSecond();
+        assertTrue(String.valueOf(docsPerSecond), docsPerSecond > 0 && docsPerSecond <= 50);
+        assertEquals(1, metrics.getDocumentsExtracted());
+        assertEquals(100, metrics.getBytesCopied());
+    }
+}
@@ -0,0 +1,217 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExportPlanTest {
+
+    // Content of the repository nodes, null for a node without content; purged nodes are absent
+    private final Map<NodeRef, ContentData> contents = new HashMap<>();
+
+    @Test
+    public void completeScanIsExact() {
+        List<NodeRef> batch = new ArrayList<>();
+        batch.add(document("application/pdf", 1000));
+        batch.add(document("application/pdf", 3000));
+        batch.add(document("text/plain", 500));
+        batch.add(folder());
+        batch.add(new NodeRef("workspace://SpacesStore/purged"));
+
+        ExportPlan plan = new ExportPlan(nodeService(), 100, 1000);
+        plan.setMatchCount(6, Collections.<String, Long>emptyMap());
+        assertTrue(plan.scan(batch));
+        plan.scanCompleted();
+
+        // The index still lists the purged node, the scan is authoritative
+        assertEquals(4, plan.getMatchCount());
+        assertEquals(4, plan.getScannedCount());
+        assertEquals(1, plan.getContentlessCount());
+        assertEquals(3, plan.getPlannedCount());
+        assertEquals(1500, plan.getAverageSize());
+        assertEquals(4500, plan.getEstimatedBytes());
+        assertTrue(plan.isEstimateExact());
+        assertEquals(false, plan.toModel().get("mimetypesSampled"));
+    }
+
+    @Test
+    public void sizeBeyondTheScanIsExtrapolated() {
+        List<NodeRef> batch = new ArrayList<>();
+        for (int i = 1; i <= 8; i++) {
+            batch.add(document("application/pdf", i * 100));
+        }
+        batch.add(folder());
+        batch.add(folder());
+        for (int i = 0; i < 10; i++) {
+            batch.add(document("application/pdf", 1000000));
+        }
+
+        ExportPlan plan = new ExportPlan(nodeService(), 100000, 10);
+        plan.setMatchCount(1000, Collections.<String, Long>emptyMap());
+        assertFalse(plan.scan(batch));
+
+        assertEquals(10, plan.getScannedCount());
+        assertEquals(2, plan.getContentlessCount());
+        assertEquals(1000, plan.getMatchCount());
+        // A fifth of the matches has no content
+        assertEquals(800, plan.getPlannedCount());
+        assertEquals(450, plan.getAverageSize());
+        assertEquals(3600 + 450 * 792, plan.getEstimatedBytes());
+        assertFalse(plan.isEstimateExact());
+        assertEquals(true, plan.toModel().get("mimetypesSampled"));
+    }
+
+    @Test
+    public void plannedCountStopsAtMaxDocs() {
+        List<NodeRef> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(document("application/pdf", 200));
+        }
+
+        ExportPlan plan = new ExportPlan(nodeService(), 5, 1000);
+        plan.setMatchCount(1000, Collections.<String, Long>emptyMap());
+        assertFalse(plan.scan(batch));
+
+        assertEquals(5, plan.getScannedCount());
+        assertEquals(5, plan.getPlannedCount());
+        assertEquals(1000, plan.getEstimatedBytes());
+        assertTrue(plan.isEstimateExact());
+    }
+
+    @Test
+    public void extrapolationIsCappedByMaxDocs() {
+        List<NodeRef> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(document("application/pdf", 200));
+        }
+
+        ExportPlan plan = new ExportPlan(nodeService(), 50, 10);
+        plan.setMatchCount(1000, Collections.<String, Long>emptyMap());
+        assertFalse(plan.scan(batch));
+
+        assertEquals(50, plan.getPlannedCount());
+        assertEquals(10000, plan.getEstimatedBytes());
+    }
+
+    @Test
+    public void laggingIndexCountIsRaisedToTheScan() {
+        List<NodeRef> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(document("text/plain", 10));
+        }
+
+        ExportPlan plan = new ExportPlan(nodeService(), 1000, 1000);
+        plan.setMatchCount(3, Collections.<String, Long>emptyMap());
+        assertTrue(plan.scan(batch));
+
+        assertEquals(10, plan.getMatchCount());
+        assertEquals(10, plan.getPlannedCount());
+        assertEquals(100, plan.getEstimatedBytes());
+    }
+
+    @Test
+    public void scanOfBatchesAddsUp() {
+        ExportPlan plan = new ExportPlan(nodeService(), 1000, 5);
+        plan.setMatchCount(100, Collections.<String, Long>emptyMap());
+        assertTrue(plan.scan(Collections.singletonList(document("text/plain", 10))));
+        assertTrue(plan.scan(Collections.singletonList(document("text/plain", 30))));
+        assertFalse(plan.scan(Arrays.asList(document("text/plain", 20), document("text/plain", 20),
+            document("text/plain", 20), document("text/plain", 999))));
+
+        assertEquals(5, plan.getScannedCount());
+        assertEquals(20, plan.getAverageSize());
+        assertEquals(100, plan.getPlannedCount());
+        assertEquals(2000, plan.getEstimatedBytes());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void indexFacetsAreListedByDecreasingCount() {
+        Map<String, Long> facets = new HashMap<>();
+        facets.put("text/plain", 20L);
+        facets.put("application/pdf", 70L);
+        facets.put("image/png", 10L);
+
+        ExportPlan plan = new ExportPlan(nodeService(), 1000, 1);
+        plan.setMatchCount(100, facets);
+        plan.scan(Collections.singletonList(document("application/msword", 10)));
+
+        Map<String, Object> model = plan.toModel();
+        List<Map<String, Object>> mimetypes = (List<Map<String, Object>>) model.get("mimetypes");
+        assertEquals(3, mimetypes.size());
+        assertEquals("application/pdf", mimetypes.get(0).get("mimetype"));
+        assertEquals(70L, mimetypes.get(0).get("count"));
+        assertEquals("text/plain", mimetypes.get(1).get("mimetype"));
+        assertEquals("image/png", mimetypes.get(2).get("mimetype"));
+        assertEquals(false, model.get("mimetypesSampled"));
+    }
+
+    @Test
+    public void scanWithoutContentPlansNothing() {
+        ExportPlan plan = new ExportPlan(nodeService(), 1000, 2);
+        plan.setMatchCount(500, Collections.<String, Long>emptyMap());
+        plan.scan(Arrays.asList(folder(), folder()));
+
+        assertEquals(0, plan.getAverageSize());
+        assertEquals(0, plan.getPlannedCount());
+        assertEquals(0, plan.getEstimatedBytes());
+    }
+
+    @Test
+    public void fitsOnVolume() {
+        ExportPlan plan = new ExportPlan(nodeService(), 1000, 1000);
+        plan.setMatchCount(1, Collections.<String, Long>emptyMap());
+        plan.scan(Collections.singletonList(document("application/pdf", 4096)));
+        plan.scanCompleted();
+
+        assertEquals(true, plan.toModel().get("fitsOnVolume"));
+        plan.setFreeBytes(4096);
+        assertEquals(true, plan.toModel().get("fitsOnVolume"));
+        plan.setFreeBytes(4095);
+        assertEquals(false, plan.toModel().get("fitsOnVolume"));
+    }
+
+    private NodeRef document(String mimetype, long size) {
+        NodeRef nodeRef = new NodeRef("workspace://SpacesStore/node-" + contents.size());
+        contents.put(nodeRef, new ContentData("store://" + contents.size() + ".bin", mimetype, size, "UTF-8"));
+        return nodeRef;
+    }
+
+    private NodeRef folder() {
+        NodeRef nodeRef = new NodeRef("workspace://SpacesStore/node-" + contents.size());
+        contents.put(nodeRef, null);
+        return nodeRef;
+    }
+
+    private NodeService nodeService() {
+        return (NodeService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {NodeService.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("exists".equals(method.getName())) {
+                        return contents.containsKey(args[0]);
+                    }
+                    if ("getProperty".equals(method.getName()) && ContentModel.PROP_CONTENT.equals(args[1])) {
+                        return contents.get(args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,193 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportSearchPipelineTest {
+
+    private static final List<NodeRef> ONE_NODE =
+        Collections.singletonList(new NodeRef("workspace://SpacesStore/00000000-0000-0000-0000-000000000001"));
+
+    private ExportSearchPipeline pipeline;
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void fetchesAtMostDepthBatchesAhead() throws Exception {
+        CountingFetcher fetcher = new CountingFetcher(100);
+        pipeline = new ExportSearchPipeline(fetcher, 2, "test");
+
+        fetcher.awaitCalls(2);
+        Thread.sleep(100);
+        assertEquals(2, fetcher.calls.get());
+
+        assertEquals(1, pipeline.take().getCursor());
+        fetcher.awaitCalls(3);
+        Thread.sleep(100);
+        assertEquals(3, fetcher.calls.get());
+    }
+
+    @Test
+    public void batchesAreTakenInOrderUntilTheEnd() throws Exception {
+        CountingFetcher fetcher = new CountingFetcher(3);
+        pipeline = new ExportSearchPipeline(fetcher, 2, "test");
+
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, pipeline.take().getCursor());
+        }
+        assertTrue(pipeline.take().getNodeRefs().isEmpty());
+        Thread.sleep(100);
+        // Nothing is fetched after the end of the match set
+        assertEquals(4, fetcher.calls.get());
+    }
+
+    @Test
+    public void failureIsRethrownByTakeAndStopsFetching() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("Solr unavailable");
+        final AtomicInteger calls = new AtomicInteger();
+        pipeline = new ExportSearchPipeline(new Callable<ExportSearchPipeline.Batch>() {
+            @Override
+            public ExportSearchPipeline.Batch call() {
+                if (calls.incrementAndGet() == 2) {
+                    throw failure;
+                }
+                return new ExportSearchPipeline.Batch(ONE_NODE, calls.get(), 0);
+            }
+        }, 3, "test");
+
+        assertEquals(1, pipeline.take().getCursor());
+        try {
+            pipeline.take();
+            fail("The second search failed");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        Thread.sleep(100);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void closeInterruptsTheFetchInProgress() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        pipeline = new ExportSearchPipeline(new Callable<ExportSearchPipeline.Batch>() {
+            @Override
+            public ExportSearchPipeline.Batch call() throws InterruptedException {
+                calls.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return new ExportSearchPipeline.Batch(ONE_NODE, 1, 0);
+            }
+        }, 2, "test");
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        pipeline.close();
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void closeStopsAFetcherWaitingForAPermit() throws Exception {
+        CountingFetcher fetcher = new CountingFetcher(100);
+        pipeline = new ExportSearchPipeline(fetcher, 1, "test");
+        fetcher.awaitCalls(1);
+
+        pipeline.close();
+        Thread.sleep(100);
+        assertEquals(1, fetcher.calls.get());
+    }
+
+    @Test
+    public void depthZeroFetchesOnTheCallerThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger calls = new AtomicInteger();
+        pipeline = new ExportSearchPipeline(new Callable<ExportSearchPipeline.Batch>() {
+            @Override
+            public ExportSearchPipeline.Batch call() {
+                assertSame(caller, Thread.currentThread());
+                return new ExportSearchPipeline.Batch(ONE_NODE, calls.incrementAndGet(), 0);
+            }
+        }, 0, "test");
+
+        Thread.sleep(100);
+        assertEquals(0, calls.get());
+        assertEquals(1, pipeline.take().getCursor());
+        assertEquals(2, pipeline.take().getCursor());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void depthZeroWrapsTheFailure() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("Solr unavailable");
+        pipeline = new ExportSearchPipeline(new Callable<ExportSearchPipeline.Batch>() {
+            @Override
+            public ExportSearchPipeline.Batch call() {
+                throw failure;
+            }
+        }, 0, "test");
+
+        try {
+            pipeline.take();
+            fail("The search failed");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    /**
+     * Returns batches of one document with cursors 1, 2... up to the given count, then an empty batch.
+     */
+    private static class CountingFetcher implements Callable<ExportSearchPipeline.Batch> {
+        final AtomicInteger calls = new AtomicInteger();
+        private final int batches;
+
+        CountingFetcher(int batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        public ExportSearchPipeline.Batch call() {
+            int call = calls.incrementAndGet();
+            if (call > batches) {
+                return new ExportSearchPipeline.Batch(Collections.<NodeRef>emptyList(), -1, 0);
+            }
+            return new ExportSearchPipeline.Batch(ONE_NODE, call, 0);
+        }
+
+        void awaitCalls(int expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (calls.get() < expected) {
+                if (System.nanoTime() > deadline) {
+                    fail(calls.get() + " batches fetched, expected " + expected);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.alfresco.webscripts.export;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportSearchTest {
+
+    private static final Pattern DBID_RANGE = Pattern.compile("node-dbid:\\[(\\d+) TO (MAX|\\d+)\\]");
+
+    // Repository searched by the stubs: nodes by database id, and the ids of nodes purged since they were indexed
+    private final TreeMap<Long, NodeRef> nodes = new TreeMap<>();
+    private final Set<Long> purged = new HashSet<>();
+    private final List<String> queries = new ArrayList<>();
+
+    @Test
+    public void keysetCursorAdvancesToTheLastIdOfEachPage() {
+        addNodes(3, 5, 8, 13, 21, 34, 55);
+        ExportSearch search = newSearch(ExportSearch.PAGINATION_KEYSET);
+
+        assertEquals(Arrays.asList(3L, 5L, 8L), dbIds(search.nextBatch()));
+        assertEquals(8, search.getCursor());
+        assertEquals(Arrays.asList(13L, 21L, 34L), dbIds(search.nextBatch()));
+        assertEquals(34, search.getCursor());
+        assertEquals(Arrays.asList(55L), dbIds(search.nextBatch()));
+        assertEquals(55, search.getCursor());
+        assertTrue(search.nextBatch().isEmpty());
+        assertTrue(search.nextBatch().isEmpty());
+
+        assertEquals(4, queries.size());
+        assertTrue(queries.get(0), !queries.get(0).contains("node-dbid"));
+        assertTrue(queries.get(1), queries.get(1).endsWith("node-dbid:[9 TO MAX]"));
+        assertTrue(queries.get(2), queries.get(2).endsWith("node-dbid:[35 TO MAX]"));
+        assertTrue(queries.get(3), queries.get(3).endsWith("node-dbid:[56 TO MAX]"));
+        assertEquals(7, search.getSkipCount());
+    }
+
+    @Test
+    public void resumedSearchStartsAfterTheSavedCursor() {
+        addNodes(3, 5, 8, 13, 21);
+        ExportSearch search = newSearch(ExportSearch.PAGINATION_KEYSET);
+        search.resumeFrom(5, 2);
+
+        assertEquals(Arrays.asList(8L, 13L, 21L), dbIds(search.nextBatch()));
+        assertTrue(queries.get(0), queries.get(0).endsWith("node-dbid:[6 TO MAX]"));
+    }
+
+    @Test
+    public void shardSearchStaysWithinItsRange() {
+        addNodes(3, 5, 8, 13, 21, 34, 55);
+        ExportSearch search = newSearch(ExportSearch.PAGINATION_KEYSET);
+        search.setDbIdRange(5, 30);
+
+        assertEquals(Arrays.asList(5L, 8L, 13L), dbIds(search.nextBatch()));
+        assertEquals(Arrays.asList(21L), dbIds(search.nextBatch()));
+        assertTrue(search.nextBatch().isEmpty());
+        assertTrue(queries.get(0), queries.get(0).endsWith("node-dbid:[5 TO 30]"));
+        assertTrue(queries.get(1), queries.get(1).endsWith("node-dbid:[14 TO 30]"));
+    }
+
+    @Test
+    public void purgedLastNodeMovesTheCursorToTheLastOneLocated() {
+        addNodes(3, 5, 8, 13);
+        purged.add(8L);
+        ExportSearch search = newSearch(ExportSearch.PAGINATION_KEYSET);
+
+        assertEquals(3, search.nextBatch().size());
+        assertEquals(5, search.getCursor());
+        // The purged node is returned again by the index, after which the cursor moves past it
+        assertEquals(Arrays.asList(8L, 13L), dbIds(search.nextBatch()));
+        assertEquals(13, search.getCursor());
+    }
+
+    @Test
+    public void pageOfPurgedNodesFailsInsteadOfEndingTheExport() {
+        addNodes(3, 5, 8, 13);
+        purged.addAll(Arrays.asList(3L, 5L, 8L));
+        ExportSearch search = newSearch(ExportSearch.PAGINATION_KEYSET);
+
+        try {
+            search.nextBatch();
+            fail("The cursor cannot advance");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cursor did not advance past -1"));
+        }
+        // The position did not move, a retry reads the same page
+        assertEquals(-1, search.getCursor());
+        assertEquals(0, search.getSkipCount());
+    }
+
+    @Test
+    public void offsetPaginationSkipsWholeBatches() {
+        addNodes(3, 5, 8, 13, 21);
+        ExportSearch search = newSearch(ExportSearch.PAGINATION_OFFSET);
+
+        assertEquals(Arrays.asList(3L, 5L, 8L), dbIds(search.nextBatch()));
+        assertEquals(3, search.getSkipCount());
+        assertEquals(Arrays.asList(13L, 21L), dbIds(search.nextBatch()));
+        assertEquals(6, search.getSkipCount());
+        assertEquals(-1, search.getCursor());
+        assertTrue(!queries.get(1).contains("node-dbid"));
+    }
+
+    private ExportSearch newSearch(String paginationMode) {
+        return new ExportSearch(searchService(), nodeService(), "rapport", "", 3, paginationMode);
+    }
+
+    private void addNodes(long... dbIds) {
+        for (long dbId : dbIds) {
+            nodes.put(dbId, new NodeRef("workspace://SpacesStore/node-" + dbId));
+        }
+    }
+
+    private List<Long> dbIds(List<NodeRef> nodeRefs) {
+        List<Long> dbIds = new ArrayList<>();
+        for (NodeRef nodeRef : nodeRefs) {
+            for (Map.Entry<Long, NodeRef> node : nodes.entrySet()) {
+                if (node.getValue().equals(nodeRef)) {
+                    dbIds.add(node.getKey());
+                }
+            }
+        }
+        return dbIds;
+    }
+
+    /**
+     * Index returning the nodes within the database id range of the query, sorted by id, a page at a time.
+     */
+    private SearchService searchService() {
+        return (SearchService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {SearchService.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    SearchParameters searchParams = (SearchParameters) args[0];
+                    queries.add(searchParams.getQuery());
+                    long from = 0;
+                    long to = Long.MAX_VALUE;
+                    Matcher range = DBID_RANGE.matcher(searchParams.getQuery());
+                    if (range.find()) {
+                        from = Long.parseLong(range.group(1));
+                        to = "MAX".equals(range.group(2)) ? Long.MAX_VALUE : Long.parseLong(range.group(2));
+                    }
+                    List<NodeRef> matches = new ArrayList<>(nodes.subMap(from, true, to, true).values());
+                    int start = Math.min(searchParams.getSkipCount(), matches.size());
+                    int end = Math.min(start + searchParams.getMaxItems(), matches.size());
+                    return resultSet(matches.subList(start, end));
+                }
+            });
+    }
+
+    private ResultSet resultSet(final List<NodeRef> nodeRefs) {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSet.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getNodeRefs".equals(method.getName())) {
+                        return nodeRefs;
+                    }
+                    if ("close".equals(method.getName())) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    /**
+     * Node statuses of the repository; a purged node has none.
+     */
+    private NodeService nodeService() {
+        return (NodeService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {NodeService.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (!"getNodeStatus".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    for (Map.Entry<Long, NodeRef> node : nodes.entrySet()) {
+                        if (node.getValue().equals(args[0]) && !purged.contains(node.getKey())) {
+                            return new NodeRef.Status(node.getKey(), node.getValue(), null, null, false);
+                        }
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,128 @@
+package org.alfresco.webscripts.export;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExportThrottleTest {
+
+    private static final long SLOW_READ = TimeUnit.MILLISECONDS.toNanos(1000);
+    private static final long FAST_READ = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ManualClock clock;
+    private ExportThrottle throttle;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        throttle = new ExportThrottle();
+        throttle.setClock(clock);
+        throttle.setAdaptive(true);
+        throttle.setReadLatencyThreshold(500);
+        throttle.setSearchLatencyThreshold(2000);
+        throttle.setMinRateFactor(0.1);
+        throttle.setAdjustInterval(1000);
+    }
+
+    @Test
+    public void halvesTheRateWhileReadsAreSlow() {
+        throttle.init();
+
+        assertEquals(0.5, recordRead(SLOW_READ), 1e-9);
+        assertEquals(0.25, recordRead(SLOW_READ), 1e-9);
+        assertEquals(0.125, recordRead(SLOW_READ), 1e-9);
+        assertEquals(0.1, recordRead(SLOW_READ), 1e-9);
+        assertEquals(0.1, recordRead(SLOW_READ), 1e-9);
+    }
+
+    @Test
+    public void backsOffOnSlowSearches() {
+        throttle.init();
+
+        clock.advance(1, TimeUnit.SECONDS);
+        throttle.recordSearchLatency(TimeUnit.SECONDS.toNanos(3));
+        assertEquals(0.5, throttle.getRateFactor(), 1e-9);
+    }
+
+    @Test
+    public void recoversByATenthOnceLatenciesAreBackUnderThreshold() {
+        throttle.init();
+        recordRead(SLOW_READ);
+        recordRead(SLOW_READ);
+        assertEquals(0.25, throttle.getRateFactor(), 1e-9);
+
+        // The moving average goes 800, 640 and 512 ms before falling under the threshold
+        assertEquals(0.125, recordRead(FAST_READ), 1e-9);
+        assertEquals(0.1, recordRead(FAST_READ), 1e-9);
+        assertEquals(0.1, recordRead(FAST_READ), 1e-9);
+        assertEquals(0.2, recordRead(FAST_READ), 1e-9);
+        assertEquals(0.3, recordRead(FAST_READ), 1e-9);
+        for (int i = 0; i < 10; i++) {
+            recordRead(FAST_READ);
+        }
+        assertEquals(1.0, throttle.getRateFactor(), 1e-9);
+    }
+
+    @Test
+    public void adjustsAtMostOncePerInterval() {
+        throttle.init();
+
+        clock.advance(1, TimeUnit.SECONDS);
+        throttle.recordReadLatency(SLOW_READ);
+        throttle.recordReadLatency(SLOW_READ);
+        clock.advance(999, TimeUnit.MILLISECONDS);
+        throttle.recordReadLatency(SLOW_READ);
+        assertEquals(0.5, throttle.getRateFactor(), 1e-9);
+    }
+
+    @Test
+    public void pausesUnlimitedOperationsInProportionToTheirLatency() throws InterruptedException {
+        throttle.init();
+        assertEquals(0, throttle.acquireDocument());
+
+        recordRead(TimeUnit.MILLISECONDS.toNanos(800));
+        recordRead(TimeUnit.MILLISECONDS.toNanos(800));
+        // At a quarter of the rate, an operation is busy for a quarter of the time
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2400), throttle.acquireDocument());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2400), clock.getSlept());
+    }
+
+    @Test
+    public void pauseIsCappedAtFiveSeconds() throws InterruptedException {
+        throttle.init();
+        for (int i = 0; i < 4; i++) {
+            recordRead(TimeUnit.SECONDS.toNanos(10));
+        }
+
+        assertEquals(TimeUnit.SECONDS.toNanos(5), throttle.acquireDocument());
+    }
+
+    @Test
+    public void fixedLimitsAreSlowedByTheRateFactor() throws InterruptedException {
+        throttle.setBytesPerSecond(1000);
+        throttle.init();
+        recordRead(SLOW_READ);
+
+        assertEquals(0, throttle.acquireBytes(1000));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), throttle.acquireBytes(100));
+    }
+
+    @Test
+    public void latenciesAreIgnoredUnlessAdaptive() throws InterruptedException {
+        throttle.setAdaptive(false);
+        throttle.init();
+
+        assertEquals(1.0, recordRead(SLOW_READ), 1e-9);
+        assertEquals(0, throttle.acquireDocument());
+        assertEquals(0, throttle.acquireBytes(1000000));
+    }
+
+    private double recordRead(long nanos) {
+        clock.advance(1, TimeUnit.SECONDS);
+        throttle.recordReadLatency(nanos);
+        return throttle.getRateFactor();
+    }
+}
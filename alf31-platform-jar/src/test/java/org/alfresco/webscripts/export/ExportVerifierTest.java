@@ -0,0 +1,187 @@
+package org.alfresco.webscripts.export;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportVerifierTest {
+
+    private Path exportDir;
+
+    @Before
+    public void setUp() throws IOException {
+        exportDir = Files.createTempDirectory("export-verify-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(exportDir.toFile());
+    }
+
+    @Test
+    public void matchingExportHasAnEmptyReport() throws Exception {
+        ExportChecksums checksums = new ExportChecksums(exportDir, true, false);
+        record(checksums, "rapport.pdf", "contenu du rapport");
+        record(checksums, "note.txt", "une note");
+        record(checksums, "vide.txt", "");
+        checksums.close();
+
+        ExportJob job = newJob();
+        ExportVerifier verifier = new ExportVerifier(exportDir, 2);
+        verifier.verify(job);
+
+        assertEquals(3, verifier.getVerifiedCount());
+        assertEquals(0, verifier.getFailedCount());
+        assertEquals(3, job.getExtractedCount());
+        assertEquals(26, job.getBytesWritten());
+        assertEquals(Collections.<String>emptyList(), report());
+    }
+
+    @Test
+    public void sizeOnlyManifestIsCheckedOnSize() throws Exception {
+        ExportChecksums checksums = new ExportChecksums(exportDir, false, false);
+        record(checksums, "rapport.pdf", "contenu du rapport");
+        checksums.close();
+        // Same size, different bytes: not detectable without a digest
+        write("rapport.pdf", "CONTENU DU RAPPORT");
+
+        ExportVerifier verifier = new ExportVerifier(exportDir, 1);
+        verifier.verify(newJob());
+
+        assertEquals(1, verifier.getVerifiedCount());
+        assertEquals(0, verifier.getFailedCount());
+    }
+
+    @Test
+    public void reportsEachKindOfProblem() throws Exception {
+        ExportChecksums checksums = new ExportChecksums(exportDir, true, false);
+        record(checksums, "ok.txt", "intact");
+        record(checksums, "absent.txt", "supprime");
+        record(checksums, "tronque.txt", "contenu complet");
+        record(checksums, "altere.txt", "original");
+        checksums.close();
+        Files.delete(exportDir.resolve("absent.txt"));
+        write("tronque.txt", "contenu");
+        write("altere.txt", "ORIGINAL");
+
+        ExportJob job = newJob();
+        ExportVerifier verifier = new ExportVerifier(exportDir, 4);
+        verifier.verify(job);
+
+        assertEquals(4, verifier.getVerifiedCount());
+        assertEquals(3, verifier.getFailedCount());
+        assertEquals(1, job.getExtractedCount());
+
+        List<String> report = report();
+        Collections.sort(report);
+        assertEquals(3, report.size());
+        assertEquals("absent.txt\tmissing", report.get(0));
+        assertEquals("altere.txt\tsha256 " + sha256("ORIGINAL") + ", expected " + sha256("original"), report.get(1));
+        assertEquals("tronque.txt\tsize 7, expected 15", report.get(2));
+    }
+
+    @Test
+    public void entriesOutsideOfTheExportAreRejected() throws Exception {
+        Path outside = exportDir.resolveSibling(exportDir.getFileName() + "-outside.txt");
+        Files.write(outside, "hors export".getBytes(StandardCharsets.UTF_8));
+        try {
+            manifest("{\"file\":\"../" + outside.getFileName() + "\",\"size\":11}");
+
+            ExportVerifier verifier = new ExportVerifier(exportDir, 1);
+            verifier.verify(newJob());
+
+            assertEquals(1, verifier.getFailedCount());
+            assertEquals(Arrays.asList("../" + outside.getFileName() + "\toutside of the export directory"),
+                report());
+        } finally {
+            Files.delete(outside);
+        }
+    }
+
+    @Test
+    public void partiallyWrittenLastLineIsSkipped() throws Exception {
+        write("note.txt", "une note");
+        manifest("{\"file\":\"note.txt\",\"size\":8}", "", "{\"file\":\"coupe");
+
+        ExportVerifier verifier = new ExportVerifier(exportDir, 1);
+        verifier.verify(newJob());
+
+        assertEquals(1, verifier.getVerifiedCount());
+        assertEquals(0, verifier.getFailedCount());
+    }
+
+    @Test
+    public void cancelledJobStopsReadingTheManifest() throws Exception {
+        ExportChecksums checksums = new ExportChecksums(exportDir, true, false);
+        for (int i = 0; i < 20; i++) {
+            record(checksums, "doc" + i + ".txt", "document " + i);
+        }
+        checksums.close();
+
+        ExportJob job = newJob();
+        job.requestCancel();
+        ExportVerifier verifier = new ExportVerifier(exportDir, 2);
+        verifier.verify(job);
+
+        assertEquals(0, verifier.getVerifiedCount());
+        assertEquals(0, job.getExtractedCount());
+    }
+
+    @Test
+    public void exportWithoutManifestFails() throws Exception {
+        try {
+            new ExportVerifier(exportDir, 1).verify(newJob());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No checksum manifest found"));
+        }
+    }
+
+    private void record(ExportChecksums checksums, String fileName, String content) throws IOException {
+        write(fileName, content);
+        MessageDigest digest = checksums.newDigest();
+        if (digest != null) {
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+        }
+        checksums.record("workspace://SpacesStore/" + fileName, "/Espace/" + fileName, fileName, "text/plain",
+            content.length(), null, "store://" + fileName, digest);
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        Files.write(exportDir.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void manifest(String... lines) throws IOException {
+        Files.write(exportDir.resolve(ExportChecksums.MANIFEST_FILE), Arrays.asList(lines), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE_NEW);
+    }
+
+    private List<String> report() throws IOException {
+        return Files.readAllLines(exportDir.resolve(ExportVerifier.REPORT_FILE), StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(String content) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(ExportChecksums.ALGORITHM);
+        return Hex.encodeHexString(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static ExportJob newJob() {
+        return new ExportJob("admin", null, 100, "", "");
+    }
+}
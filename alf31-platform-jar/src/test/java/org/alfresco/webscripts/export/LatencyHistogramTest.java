@@ -0,0 +1,78 @@
+package org.alfresco.webscripts.export;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMillis(), 0);
+        assertEquals(0, histogram.getPercentileMillis(99), 0);
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(10.9, histogram.getMeanMillis(), 1e-9);
+        assertEquals(1090, histogram.getTotalMillis(), 1e-9);
+        assertEquals(100, histogram.getMaxMillis(), 1e-9);
+        // 1000 us falls in the bucket below 1024 us
+        assertEquals(1.024, histogram.getPercentileMillis(50), 1e-9);
+        assertEquals(1.024, histogram.getPercentileMillis(90), 1e-9);
+        // The bucket bound of 131.072 ms is capped by the maximum
+        assertEquals(100, histogram.getPercentileMillis(95), 1e-9);
+        assertEquals(100, histogram.getPercentileMillis(99), 1e-9);
+    }
+
+    @Test
+    public void percentileIsWithinAFactorOfTwo() {
+        for (long micros = 1; micros < 10000000; micros = micros * 3 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros * 4));
+
+            double p50 = histogram.getPercentileMillis(50);
+            double actual = micros / 1000.0;
+            assertTrue(micros + " us reported as " + p50 + " ms", p50 >= actual && p50 <= 2 * actual);
+        }
+    }
+
+    @Test
+    public void subMicrosecondLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(0);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0.0005, histogram.getMaxMillis(), 1e-12);
+        assertEquals(0.0005, histogram.getPercentileMillis(100), 1e-12);
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getTotalMillis(), 0);
+        assertEquals(0, histogram.getMaxMillis(), 0);
+        assertEquals(0, histogram.getPercentileMillis(50), 0);
+
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(2, histogram.getMaxMillis(), 1e-9);
+    }
+}
@@ -0,0 +1,31 @@
+package org.alfresco.webscripts.export;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock that only moves when told to, or by the time a caller sleeps.
+ */
+class ManualClock implements TokenBucket.Clock {
+
+    private long now = TimeUnit.DAYS.toNanos(1);
+    private long slept;
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public synchronized void sleep(long nanos) {
+        now += nanos;
+        slept += nanos;
+    }
+
+    synchronized void advance(long duration, TimeUnit unit) {
+        now += unit.toNanos(duration);
+    }
+
+    synchronized long getSlept() {
+        return slept;
+    }
+}
@@ -0,0 +1,70 @@
+package org.alfresco.webscripts.export;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+
+    private ManualClock clock;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        bucket = new TokenBucket(1000, clock);
+    }
+
+    @Test
+    public void burstOfOneSecondDoesNotWait() throws InterruptedException {
+        assertEquals(0, bucket.acquire(600, 1));
+        assertEquals(0, bucket.acquire(400, 1));
+        assertEquals(0, clock.getSlept());
+    }
+
+    @Test
+    public void debtIsRepaidAtTheRate() throws InterruptedException {
+        bucket.acquire(1000, 1);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.acquire(100, 1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), clock.getSlept());
+    }
+
+    @Test
+    public void tokensRefillWithElapsedTime() throws InterruptedException {
+        bucket.acquire(1000, 1);
+        clock.advance(50, TimeUnit.MILLISECONDS);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), bucket.acquire(100, 1));
+    }
+
+    @Test
+    public void refillIsCappedAtOneSecond() throws InterruptedException {
+        clock.advance(10, TimeUnit.SECONDS);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.acquire(1500, 1));
+    }
+
+    @Test
+    public void requestLargerThanBurstGoesThroughAfterLongerWait() throws InterruptedException {
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), bucket.acquire(1200, 1));
+        // The debt was repaid by the wait, the next second is available again
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(0, bucket.acquire(1000, 1));
+    }
+
+    @Test
+    public void factorSlowsTheRate() throws InterruptedException {
+        bucket.acquire(1000, 0.5);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.acquire(50, 0.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRate() {
+        new TokenBucket(0);
+    }
+}
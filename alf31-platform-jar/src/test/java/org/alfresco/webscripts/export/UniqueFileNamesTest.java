@@ -0,0 +1,90 @@
+package org.alfresco.webscripts.export;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class UniqueFileNamesTest {
+
+    @Test
+    public void suffixesDuplicatesBeforeTheExtension() {
+        UniqueFileNames names = new UniqueFileNames();
+        assertEquals("rapport.pdf", names.allocate("rapport.pdf"));
+        assertEquals("rapport_1.pdf", names.allocate("rapport.pdf"));
+        assertEquals("rapport_2.pdf", names.allocate("rapport.pdf"));
+        assertEquals("notes", names.allocate("notes"));
+        assertEquals("notes_1", names.allocate("notes"));
+    }
+
+    @Test
+    public void suffixesOnlyTheLastExtension() {
+        UniqueFileNames names = new UniqueFileNames();
+        names.allocate("archive.tar.gz");
+        assertEquals("archive.tar_1.gz", names.allocate("archive.tar.gz"));
+    }
+
+    @Test
+    public void neverSuffixesADirectoryOfARelativePath() {
+        UniqueFileNames names = new UniqueFileNames();
+        names.allocate("v1.2/notes");
+        assertEquals("v1.2/notes_1", names.allocate("v1.2/notes"));
+        names.allocate("v1.2/notes.txt");
+        assertEquals("v1.2/notes_1.txt", names.allocate("v1.2/notes.txt"));
+    }
+
+    @Test
+    public void skipsSuffixedNamesAlreadyTaken() {
+        UniqueFileNames names = new UniqueFileNames();
+        assertEquals("rapport_1.pdf", names.allocate("rapport_1.pdf"));
+        assertEquals("rapport.pdf", names.allocate("rapport.pdf"));
+        assertEquals("rapport_2.pdf", names.allocate("rapport.pdf"));
+    }
+
+    @Test
+    public void skipsReservedNames() {
+        UniqueFileNames names = new UniqueFileNames();
+        names.reserve(ExportCheckpoint.STATE_FILE);
+        names.reserve("rapport.pdf");
+        assertEquals("rapport_1.pdf", names.allocate("rapport.pdf"));
+        assertEquals(".export-checkpoint_1.properties", names.allocate(ExportCheckpoint.STATE_FILE));
+    }
+
+    @Test
+    public void concurrentAllocationsAreUnique() throws Exception {
+        final UniqueFileNames names = new UniqueFileNames();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        List<String> allocated = new ArrayList<>();
+                        for (int i = 0; i < 500; i++) {
+                            allocated.add(names.allocate("document.pdf"));
+                        }
+                        return allocated;
+                    }
+                }));
+            }
+
+            Set<String> unique = new HashSet<>();
+            for (Future<List<String>> future : futures) {
+                unique.addAll(future.get());
+            }
+            assertEquals(4000, unique.size());
+            assertEquals("document_4000.pdf", names.allocate("document.pdf"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}